@@ -0,0 +1,55 @@
+package com.disney.idea.client;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures summing the counts of each queried day into the totals of a date range query,
+ * where most names appear on most days.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class CountsMergeBenchmark {
+
+    @Param({"7", "30", "90"})
+    public int numDays;
+
+    @Param({"1000", "10000"})
+    public int namesPerDay;
+
+    private List<Map<String, Long>> dayCounts;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        dayCounts = new ArrayList<>(numDays);
+        for (int day = 0; day < numDays; day++) {
+            Map<String, Long> counts = new HashMap<>();
+            for (int i = 0; i < namesPerDay; i++) {
+                counts.put("metric-" + random.nextInt(namesPerDay + namesPerDay / 10), (long) random.nextInt(100000));
+            }
+            dayCounts.add(counts);
+        }
+    }
+
+    @Benchmark
+    public Map<String, Long> mergeCounts() {
+        Map<String, Long> countsByName = new HashMap<>();
+        NewRelicClient.mergeCounts(countsByName, dayCounts);
+        return countsByName;
+    }
+}
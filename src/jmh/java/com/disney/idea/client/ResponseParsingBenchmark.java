@@ -0,0 +1,51 @@
+package com.disney.idea.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Compares the streaming reader of NerdGraph responses with the tree reader it replaced, on a
+ * single query result of each size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ResponseParsingBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int numFacets;
+
+    private byte[] response;
+
+    @Setup
+    public void setup() {
+        response = NerdGraphFixtures.countsResponse(1, numFacets, numFacets, 42).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public Map<String, Long> readStreaming() throws IOException {
+        Map<String, Long> counts = new HashMap<>();
+        NerdGraphResponseReader.readCounts(new ByteArrayInputStream(response), counts);
+        return counts;
+    }
+
+    @Benchmark
+    public Map<String, Long> readTree() throws IOException {
+        Map<String, Long> counts = new HashMap<>();
+        TreeResponseReader.readCounts(new ByteArrayInputStream(response), counts);
+        return counts;
+    }
+}
@@ -0,0 +1,72 @@
+package com.disney.idea.components;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.RowSorter;
+import javax.swing.SortOrder;
+import javax.swing.table.TableModel;
+import javax.swing.table.TableRowSorter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.disney.idea.utils.Trace;
+
+/**
+ * Measures applying query counts to the rows of a large table, and sorting the rows by Num Hits
+ * the way the table's row sorter does when the column header is clicked.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TraceTableModelBenchmark {
+
+    @Param({"10000"})
+    public int numRows;
+
+    private TraceTableModel model;
+    private Map<String, Long> traceCounts;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        List<Trace> traces = new ArrayList<>(numRows);
+        traceCounts = new HashMap<>();
+        for (int i = 0; i < numRows; i++) {
+            // the benchmarks only read the metric names and counts, never the file or annotation
+            String metricName = "metric-" + i;
+            traces.add(new Trace(metricName, null, 0, i, null));
+            // a tenth of the traces had no transactions
+            if (i % 10 != 0) {
+                traceCounts.put(metricName, (long) random.nextInt(100000));
+            }
+        }
+        model = new TraceTableModel(traces);
+        model.addTraceCounts(traceCounts);
+    }
+
+    @Benchmark
+    public TraceTableModel addTraceCounts() {
+        model.addTraceCounts(traceCounts);
+        return model;
+    }
+
+    @Benchmark
+    public int sortByNumHits() {
+        TableRowSorter<TableModel> sorter = new TableRowSorter<>(model);
+        sorter.setSortKeys(Collections.singletonList(new RowSorter.SortKey(2, SortOrder.DESCENDING)));
+        return sorter.convertRowIndexToModel(0);
+    }
+}
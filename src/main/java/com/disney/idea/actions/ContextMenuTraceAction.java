@@ -55,7 +55,7 @@ public class ContextMenuTraceAction extends AnAction {
                     e.getData(CommonDataKeys.CARET).getOffset());
 
             PsiAnnotation annotation = Utils.getTraceAnnotationParent(element);
-            Trace trace = Trace.fromPsiAnnotation(annotation);
+            String metricName = Trace.getMetricName(annotation);
 
             Project myProject = Utils.getProject(e.getDataContext());
 
@@ -69,7 +69,7 @@ public class ContextMenuTraceAction extends AnAction {
                 int index = 0;
                 for (int i = 0; i < nRow; i++) {
                     int modelIdx = table.convertRowIndexToModel(i);
-                    if (model.getValueAt(modelIdx, 1).equals(trace.getMetricName())) {
+                    if (model.getValueAt(modelIdx, 1).equals(metricName)) {
                         index = i;
                     }
                 }
@@ -0,0 +1,69 @@
+package com.disney.idea.actions;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.disney.idea.client.NewRelicClient;
+import com.disney.idea.utils.Utils;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Disposer;
+import com.intellij.util.Alarm;
+
+/**
+ * Shows the running totals of a New Relic query in the project's table while the query is in
+ * progress. Partial counts may arrive from several query threads at once; the table is refreshed
+ * at most once per {@link #PUBLISH_INTERVAL_MS} with the latest of them, and the final counts
+ * always replace any partial ones. The publisher must be disposed when the query ends, even if
+ * it fails, so that its alarm does not outlive the query.
+ */
+class CountsPublisher implements NewRelicClient.CountsListener {
+
+    static final int PUBLISH_INTERVAL_MS = 250;
+
+    private final Project project;
+    private final Alarm publishAlarm;
+    private final AtomicReference<Map<String, Long>> pendingCounts = new AtomicReference<>();
+    private volatile long lastPublished;
+    private boolean finished;
+
+    CountsPublisher(Project project) {
+        this.project = project;
+        this.publishAlarm = new Alarm(Alarm.ThreadToUse.POOLED_THREAD, project);
+    }
+
+    @Override
+    public void countsUpdated(Map<String, Long> partialCounts) {
+        // only the update which finds nothing pending schedules a refresh; later ones just replace the counts
+        if (pendingCounts.getAndSet(partialCounts) == null) {
+            long delay = Math.max(0, lastPublished + PUBLISH_INTERVAL_MS - System.currentTimeMillis());
+            publishAlarm.addRequest(this::publishPending, delay);
+        }
+    }
+
+    private synchronized void publishPending() {
+        Map<String, Long> partialCounts = pendingCounts.getAndSet(null);
+        if (partialCounts != null && !finished) {
+            lastPublished = System.currentTimeMillis();
+            Utils.refreshCounts(project, partialCounts);
+        }
+    }
+
+    /**
+     * Drops any partial counts which are not shown yet and shows the final counts. Holding the lock
+     * while refreshing queues the final update after any partial one already handed to the table.
+     * @param traceCounts the complete result of the query
+     */
+    synchronized void finish(Map<String, Long> traceCounts) {
+        dispose();
+        Utils.refreshCounts(project, traceCounts);
+    }
+
+    /**
+     * Drops any partial counts which are not shown yet and releases the alarm, without showing
+     * anything. Called once the query is over, however it ended; calling it again does nothing.
+     */
+    synchronized void dispose() {
+        finished = true;
+        Disposer.dispose(publishAlarm);
+    }
+}
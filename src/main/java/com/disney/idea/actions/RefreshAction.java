@@ -1,14 +1,25 @@
 package com.disney.idea.actions;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.commons.lang3.StringUtils;
 
+import com.disney.idea.client.DailyCountsCache;
 import com.disney.idea.client.NewRelicClient;
+import com.disney.idea.client.QueryCoalescer;
 import com.disney.idea.components.ApplicationPreferencesState;
+import com.disney.idea.components.AutoRefreshScheduler;
 import com.disney.idea.components.ProjectPreferencesState;
+import com.disney.idea.components.SharedHttpClient;
+import com.disney.idea.components.TraceTableModel;
+import com.disney.idea.utils.Trace;
 import com.disney.idea.utils.Utils;
+import com.intellij.notification.Notification;
+import com.intellij.notification.NotificationType;
+import com.intellij.notification.Notifications;
 import com.intellij.openapi.actionSystem.AnAction;
 import com.intellij.openapi.actionSystem.AnActionEvent;
 import com.intellij.openapi.actionSystem.PlatformDataKeys;
@@ -25,6 +36,10 @@ import com.intellij.openapi.project.Project;
  */
 public class RefreshAction extends AnAction {
 
+    // shared by all projects, so projects querying the same app at the same time share the query
+    private static final QueryCoalescer QUERY_COALESCER = new QueryCoalescer();
+    private static final String NOTIFICATION_GROUP = "Trace Metrics";
+
     public RefreshAction() {
         // Set the menu item name.
         super("Run or Refresh New Relic Query");
@@ -38,16 +53,45 @@ public class RefreshAction extends AnAction {
      */
     public void actionPerformed(AnActionEvent event) {
         Project project = event.getData(PlatformDataKeys.PROJECT);
+        refresh(project);
+    }
 
+    /**
+     * Starts the background task which queries New Relic and updates the project's metrics table.
+     * The {@link AutoRefreshScheduler} is told when the task starts and finishes.
+     * @param project the IntelliJ project for which metrics will be fetched
+     */
+    public static void refresh(Project project) {
+        AutoRefreshScheduler scheduler = AutoRefreshScheduler.getInstance(project);
+        scheduler.refreshStarted();
         ProgressManager.getInstance().run(new Task.Backgroundable(project, "Trace Metrics") {
             public void run(ProgressIndicator indicator) {
                 indicator.setText("Running New Relic query");
 
-                // call new relic
-                Map<String, Long> traceCounts = callNewRelic(project, indicator);
+                // call new relic, showing the running totals as the queried days complete
+                CountsPublisher publisher = new CountsPublisher(project);
+                try {
+                    NewRelicClient client = createClient(project, publisher);
+                    Map<String, Long> traceCounts = client == null ? new HashMap<>() : QUERY_COALESCER.query(client, indicator);
+                    if (traceCounts == null) {
+                        // canceled while waiting for another project's query, so the table keeps its counts
+                        return;
+                    }
+
+                    // refresh the table content from the query
+                    publisher.finish(traceCounts);
+                    if (client != null && !client.isComplete()) {
+                        reportIncomplete(project, indicator);
+                    }
+                } finally {
+                    // a failed or canceled query must not leave a partial update pending
+                    publisher.dispose();
+                }
+            }
 
-                // refresh the table content from the query
-                Utils.refreshCounts(project, traceCounts);
+            @Override
+            public void onFinished() {
+                scheduler.refreshFinished();
             }
         });
     }
@@ -57,9 +101,37 @@ public class RefreshAction extends AnAction {
      * project, retrieving query results and parsing them into a Map whose keys
      * are metric names and the values are counts for that metric.
      * @param project the IntelliJ project for which metrics will be fetched
-     * @return a Map of metric name to count for that metric, or an empty Map if any configuration is missing.
+     * @return a Map of metric name to count for that metric, an empty Map if any configuration is missing,
+     *         or null if canceled while waiting for the same query from another project.
+     */
+    public static Map<String, Long> callNewRelic(Project project, ProgressIndicator indicator) {
+        return callNewRelic(project, indicator, null);
+    }
+
+    /**
+     * Calls the New Relic API server as {@link #callNewRelic(Project, ProgressIndicator)} does, sending
+     * the running totals to the given listener while the query is in progress. When another project is
+     * already running the same query, its result is used instead and the listener is not called.
+     * @param project        the IntelliJ project for which metrics will be fetched
+     * @param countsListener the listener for partial counts, or null
+     * @return a Map of metric name to count for that metric, an empty Map if any configuration is missing,
+     *         or null if canceled while waiting for the same query from another project.
+     */
+    public static Map<String, Long> callNewRelic(Project project, ProgressIndicator indicator, NewRelicClient.CountsListener countsListener) {
+        NewRelicClient client = createClient(project, countsListener);
+        if (client == null) {
+            return new HashMap<>();
+        }
+        return QUERY_COALESCER.query(client, indicator);
+    }
+
+    /**
+     * Creates a client for the values configured for this IntelliJ project.
+     * @param project        the IntelliJ project for which metrics will be fetched
+     * @param countsListener the listener for partial counts, or null
+     * @return the client, or null if any configuration is missing
      */
-    public static Map<String, Long> callNewRelic(Project project, ProgressIndicator indicator){
+    private static NewRelicClient createClient(Project project, NewRelicClient.CountsListener countsListener) {
         ApplicationPreferencesState applicationPreferences = ApplicationPreferencesState.getInstance();
         ProjectPreferencesState projectPreferences = ProjectPreferencesState.getInstance(project);
         String accountId = applicationPreferences.getNewRelicAccountId();
@@ -69,7 +141,46 @@ public class RefreshAction extends AnAction {
         String untilDate = projectPreferences.getUntilDateToQuery();
 
         NewRelicClient client = getClient(accountId, apiKey, appName, numDays, untilDate);
-        return client == null ? new HashMap<>() : client.query(indicator);
+        if (client == null) {
+            return null;
+        }
+        client.setHttpClient(SharedHttpClient.getInstance().getHttpClient());
+        client.setCountsCache(new DailyCountsCache(Utils.getCountsCacheDirectory(project)));
+        client.setCountsListener(countsListener);
+        client.setMetricNames(getMetricNames(project));
+        return client;
+    }
+
+    /**
+     * Tells the user that the counts now shown are those of the requests which completed before the
+     * query was canceled, ran out of time or had requests fail, so they are lower than the real ones.
+     */
+    private static void reportIncomplete(Project project, ProgressIndicator indicator) {
+        String reason = indicator.isCanceled() ? "was canceled" : "did not complete";
+        indicator.setText("New Relic query " + reason + ", counts are incomplete");
+        Notifications.Bus.notify(new Notification(NOTIFICATION_GROUP, "Trace Metrics",
+                "The New Relic query " + reason + ". The counts shown are incomplete; refresh to query them again.",
+                NotificationType.WARNING), project);
+    }
+
+    /**
+     * Returns the metric names of the traces shown in the project's table, so that only those are
+     * queried from New Relic.
+     * @param project the IntelliJ project for which metrics will be fetched
+     * @return the metric names, or null if the traces have not been loaded yet
+     */
+    private static List<String> getMetricNames(Project project) {
+        // runs on the background thread of the refresh, so the model is read from its holder, not the table
+        TraceTableModel model = Utils.getTableModel(project);
+        List<Trace> traces = model == null ? null : model.getTraces();
+        if (traces == null || traces.isEmpty()) {
+            return null;
+        }
+        List<String> metricNames = new ArrayList<>(traces.size());
+        for (Trace trace : traces) {
+            metricNames.add(trace.getMetricName());
+        }
+        return metricNames;
     }
 
     /**
@@ -0,0 +1,218 @@
+package com.disney.idea.client;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.hash.Hashing;
+
+/**
+ * On-disk cache of the trace counts for single, completed days, so that historical days
+ * do not have to be queried from New Relic again on every refresh.
+ * Each day is stored in its own small JSON file under the cache directory, keyed by
+ * New Relic account, application name and day. The counts of queries restricted to lists of
+ * metric names are kept apart, in one entry per day which holds a count, possibly 0, for every
+ * name queried so far; any list of names found in it is served from it, whatever lists the
+ * names were queried in. When the files grow beyond the configured size, the least recently
+ * used days are evicted.
+ */
+public class DailyCountsCache {
+
+    private static final long DEFAULT_MAX_SIZE_BYTES = 32L * 1024 * 1024;
+    private static final String FILE_SUFFIX = ".json";
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final String NAMED_SCOPE = "names";
+    // entries of named counts are read, merged and written back, by the queries of any project
+    private static final Object NAMED_LOCK = new Object();
+    // a cache is created for every refresh, and the refreshes of all projects share the directory
+    private static final Object EVICT_LOCK = new Object();
+
+    private final Path directory;
+    private final long maxSizeBytes;
+
+    public DailyCountsCache(Path directory) {
+        this(directory, DEFAULT_MAX_SIZE_BYTES);
+    }
+
+    public DailyCountsCache(Path directory, long maxSizeBytes) {
+        this.directory = directory;
+        this.maxSizeBytes = maxSizeBytes;
+    }
+
+    /**
+     * Looks up the counts stored for a day.
+     * @param accountId the New Relic account ID
+     * @param appName   the New Relic application name
+     * @param day       the UTC day the counts were queried for
+     * @return the metric name to count map for the day, or null if the day is not cached
+     */
+    public Map<String, Long> get(String accountId, String appName, LocalDate day) {
+        return read(accountId, appName, "", day);
+    }
+
+    /**
+     * Looks up the counts stored for a day by queries restricted to lists of metric names.
+     * @param accountId the New Relic account ID
+     * @param appName   the New Relic application name
+     * @param day       the UTC day the counts were queried for
+     * @return the metric name to count map of every name queried for the day so far, holding 0 for
+     *         names without transactions, or null if no names of the day are cached
+     */
+    public Map<String, Long> getNamed(String accountId, String appName, LocalDate day) {
+        return read(accountId, appName, NAMED_SCOPE, day);
+    }
+
+    private Map<String, Long> read(String accountId, String appName, String scope, LocalDate day) {
+        Path file = getFile(accountId, appName, scope, day);
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try {
+            JsonNode entry = MAPPER.readTree(file.toFile());
+            if (entry == null
+                    || !accountId.equals(entry.path("accountId").asText())
+                    || !appName.equals(entry.path("appName").asText())
+                    || !day.toString().equals(entry.path("day").asText())
+                    || !scope.equals(entry.path("scope").asText())) {
+                return null;
+            }
+            Map<String, Long> counts = new HashMap<>();
+            Iterator<Map.Entry<String, JsonNode>> fields = entry.path("counts").fields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                counts.put(field.getKey(), field.getValue().asLong());
+            }
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            return counts;
+        } catch (IOException e) {
+            // unreadable or partially written entry, query the day again
+            deleteQuietly(file);
+            return null;
+        }
+    }
+
+    /**
+     * Stores the counts for a completed day, evicting the least recently used days if the
+     * cache has grown beyond its maximum size.
+     * @param accountId the New Relic account ID
+     * @param appName   the New Relic application name
+     * @param day       the UTC day the counts were queried for
+     * @param counts    the metric name to count map for the day
+     */
+    public void put(String accountId, String appName, LocalDate day, Map<String, Long> counts) {
+        write(accountId, appName, "", day, counts);
+    }
+
+    /**
+     * Stores the counts of a completed day queried for a list of metric names, adding them to the
+     * names already cached for the day.
+     * @param accountId the New Relic account ID
+     * @param appName   the New Relic application name
+     * @param day       the UTC day the counts were queried for
+     * @param names     the metric names the query was restricted to
+     * @param counts    the metric name to count map returned for the names, without names which had no transactions
+     */
+    public void putNamed(String accountId, String appName, LocalDate day, Collection<String> names, Map<String, Long> counts) {
+        synchronized (NAMED_LOCK) {
+            Map<String, Long> namedCounts = read(accountId, appName, NAMED_SCOPE, day);
+            if (namedCounts == null) {
+                namedCounts = new HashMap<>();
+            }
+            for (String name : names) {
+                namedCounts.put(name, counts.getOrDefault(name, 0L));
+            }
+            write(accountId, appName, NAMED_SCOPE, day, namedCounts);
+        }
+    }
+
+    private void write(String accountId, String appName, String scope, LocalDate day, Map<String, Long> counts) {
+        ObjectNode entry = MAPPER.createObjectNode();
+        entry.put("accountId", accountId);
+        entry.put("appName", appName);
+        entry.put("day", day.toString());
+        if (!scope.isEmpty()) {
+            entry.put("scope", scope);
+        }
+        ObjectNode countsNode = entry.putObject("counts");
+        counts.forEach(countsNode::put);
+
+        Path file = getFile(accountId, appName, scope, day);
+        try {
+            Files.createDirectories(directory);
+            Path tempFile = Files.createTempFile(directory, "day", ".tmp");
+            MAPPER.writeValue(tempFile.toFile(), entry);
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        evict(file);
+    }
+
+    private void evict(Path newestFile) {
+        synchronized (EVICT_LOCK) {
+            evictLocked(newestFile);
+        }
+    }
+
+    private void evictLocked(Path newestFile) {
+        List<Path> files = new ArrayList<>();
+        long totalSize = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + FILE_SUFFIX)) {
+            for (Path file : stream) {
+                files.add(file);
+                totalSize += file.toFile().length();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        if (totalSize <= maxSizeBytes) {
+            return;
+        }
+        files.sort(Comparator.comparingLong(file -> file.toFile().lastModified()));
+        for (Path file : files) {
+            if (totalSize <= maxSizeBytes) {
+                break;
+            }
+            if (file.equals(newestFile)) {
+                continue;
+            }
+            long size = file.toFile().length();
+            if (deleteQuietly(file)) {
+                totalSize -= size;
+            }
+        }
+    }
+
+    private Path getFile(String accountId, String appName, String scope, LocalDate day) {
+        // named by a digest of the whole key, so that entries of different accounts or apps do not collide
+        String key = Hashing.sha256()
+                .hashString(String.join("\n", accountId, appName, scope), StandardCharsets.UTF_8)
+                .toString();
+        return directory.resolve(day + "-" + key + FILE_SUFFIX);
+    }
+
+    private static boolean deleteQuietly(Path file) {
+        try {
+            return Files.deleteIfExists(file);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
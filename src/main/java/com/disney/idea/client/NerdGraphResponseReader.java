@@ -0,0 +1,164 @@
+package com.disney.idea.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.LocalDate;
+import java.util.Map;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Reads the trace counts out of a NerdGraph NRQL response body and merges them into a map
+ * of metric name to count. The expected response has the form
+ * {@code {"data":{"actor":{"d0":{"results":[{"facet":"...","count":...,"name":"..."}, ...]}, "d1":{...}}}}},
+ * with one field under {@code actor} per (aliased) {@code nrql} query in the request.
+ * Results of a {@code TIMESERIES} query carry a {@code beginTimeSeconds} field per row, which
+ * {@link #readDailyCounts(InputStream, BiFunction)} uses to keep the days apart.
+ *
+ * The parser factory is shared; it is thread-safe once configured.
+ */
+final class NerdGraphResponseReader {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final String METRIC_NAME_PREFIX = "WebTransaction/Custom/";
+    private static final long SECONDS_PER_DAY = 24 * 60 * 60;
+
+    /**
+     * Receives the rows of a results array.
+     */
+    private interface ResultSink {
+        void accept(String metricName, long count, Long beginTimeSeconds);
+    }
+
+    private NerdGraphResponseReader() {
+    }
+
+    /**
+     * Streams through the response, skipping everything but the results arrays, and merges
+     * each {@code name}/{@code count} pair into the given map without building a JSON tree.
+     * @param bodyStream   the NerdGraph response body
+     * @param countsByName the map to merge counts into, keyed by metric name without the custom transaction prefix
+     * @throws IOException if the body cannot be read or is not valid JSON
+     */
+    static void readCounts(InputStream bodyStream, Map<String, Long> countsByName) throws IOException {
+        readCounts(bodyStream, alias -> countsByName);
+    }
+
+    /**
+     * Streams through the response like {@link #readCounts(InputStream, Map)}, but merges the results
+     * of each aliased query into its own map.
+     * @param bodyStream  the NerdGraph response body
+     * @param countsByAlias supplies the map to merge into for an alias; it is only called for aliases
+     *                      which returned a results array, even an empty one
+     * @throws IOException if the body cannot be read or is not valid JSON
+     */
+    static void readCounts(InputStream bodyStream, Function<String, Map<String, Long>> countsByAlias) throws IOException {
+        readResponse(bodyStream, alias -> {
+            Map<String, Long> countsByName = countsByAlias.apply(alias);
+            return (metricName, count, beginTimeSeconds) -> countsByName.merge(metricName, count, Long::sum);
+        });
+    }
+
+    /**
+     * Streams through the response of {@code TIMESERIES 1 day} queries and merges the counts of each
+     * bucket into the map for the alias of its query and the UTC day the bucket begins on.
+     * Rows without a bucket start are skipped.
+     * @param bodyStream the NerdGraph response body
+     * @param countsByAliasAndDay supplies the map to merge into for an alias and a day
+     * @throws IOException if the body cannot be read or is not valid JSON
+     */
+    static void readDailyCounts(InputStream bodyStream, BiFunction<String, LocalDate, Map<String, Long>> countsByAliasAndDay) throws IOException {
+        readResponse(bodyStream, alias -> (metricName, count, beginTimeSeconds) -> {
+            if (beginTimeSeconds != null) {
+                LocalDate day = LocalDate.ofEpochDay(Math.floorDiv(beginTimeSeconds, SECONDS_PER_DAY));
+                countsByAliasAndDay.apply(alias, day).merge(metricName, count, Long::sum);
+            }
+        });
+    }
+
+    private static void readResponse(InputStream bodyStream, Function<String, ResultSink> sinkByAlias) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createParser(bodyStream)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String fieldName = parser.getCurrentName();
+                if (parser.nextToken() == JsonToken.START_OBJECT && "data".equals(fieldName)) {
+                    readData(parser, sinkByAlias);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+    }
+
+    // data: {"actor": {...}}
+    private static void readData(JsonParser parser, Function<String, ResultSink> sinkByAlias) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String fieldName = parser.getCurrentName();
+            if (parser.nextToken() == JsonToken.START_OBJECT && "actor".equals(fieldName)) {
+                readActor(parser, sinkByAlias);
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    // actor: {"d0": {"results": [...]}, "d1": {...}}
+    private static void readActor(JsonParser parser, Function<String, ResultSink> sinkByAlias) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String alias = parser.getCurrentName();
+            if (parser.nextToken() == JsonToken.START_OBJECT) {
+                readNrql(parser, alias, sinkByAlias);
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    // d0: {"results": [...]}
+    private static void readNrql(JsonParser parser, String alias, Function<String, ResultSink> sinkByAlias) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String fieldName = parser.getCurrentName();
+            if (parser.nextToken() == JsonToken.START_ARRAY && "results".equals(fieldName)) {
+                readResults(parser, sinkByAlias.apply(alias));
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    // results: [{"facet":"...","count":...,"name":"..."}, ...], with "beginTimeSeconds":... for TIMESERIES
+    private static void readResults(JsonParser parser, ResultSink sink) throws IOException {
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+            if (token != JsonToken.START_OBJECT) {
+                parser.skipChildren();
+                continue;
+            }
+            String metricName = null;
+            long count = 0L;
+            Long beginTimeSeconds = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String fieldName = parser.getCurrentName();
+                JsonToken valueToken = parser.nextToken();
+                if ("name".equals(fieldName) && valueToken == JsonToken.VALUE_STRING) {
+                    metricName = parser.getText();
+                } else if ("count".equals(fieldName) && valueToken.isScalarValue()) {
+                    count = parser.getValueAsLong();
+                } else if ("beginTimeSeconds".equals(fieldName) && valueToken.isNumeric()) {
+                    beginTimeSeconds = parser.getValueAsLong();
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            if (metricName != null) {
+                sink.accept(metricName.replace(METRIC_NAME_PREFIX, ""), count, beginTimeSeconds);
+            }
+        }
+    }
+}
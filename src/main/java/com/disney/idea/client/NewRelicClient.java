@@ -3,23 +3,49 @@ package com.disney.idea.client;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
 import java.time.LocalDate;
+import java.time.ZoneOffset;
 import java.util.ArrayList;
-import java.util.LinkedHashMap;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.lang3.StringUtils;
+import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.utils.HttpClientUtils;
 import org.apache.http.entity.ContentType;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.progress.ProgressIndicator;
 
 /**
@@ -30,6 +56,8 @@ import com.intellij.openapi.progress.ProgressIndicator;
  * opening a query view for a named metric in an external browser.
  */
 public class NewRelicClient {
+    private static final Logger LOG = Logger.getInstance(NewRelicClient.class);
+
     private final String accountId;
     private final String apiKey;
     private final String nrUrl;
@@ -39,12 +67,74 @@ public class NewRelicClient {
 
     private static final String API_URL = "https://api.newrelic.com/graphql";
     private static final String INSIGHTS_URL = "https://insights.newrelic.com/accounts/%s/query?query=";
-    private static final String defaultTraceQueryTemplate = "{\"query\":\"{actor{nrql(query:\\\"SELECT count(*) FROM Transaction WHERE name LIKE 'WebTransaction/Custom/%%' AND appName = '%s' SINCE %s days ago FACET name LIMIT 1000\\\",accounts:%s,timeout:200){results}}}\",\"variables\":\"\"}";
-    private static final String dateRangeTraceQueryTemplate = "{\"query\":\"{actor{nrql(query:\\\"SELECT count(*) FROM Transaction WHERE name LIKE 'WebTransaction/Custom/%%' AND appName = '%s' SINCE '%s' UNTIL '%s' FACET name LIMIT 1000\\\",accounts:%s,timeout:200){results}}}\",\"variables\":\"\"}";
-    private final CloseableHttpClient httpClient;
+    // filled in with the name condition, app name and time clauses of a QueryScope
+    private static final String traceQueryTemplate = "SELECT count(*) FROM Transaction WHERE %s AND appName = '%s' %s FACET name LIMIT 1000";
+    private static final String timeseriesTraceQueryTemplate = "SELECT count(*) FROM Transaction WHERE %s AND appName = '%s' %s FACET name TIMESERIES 1 day LIMIT 1000";
+    // the LIMIT of the query templates; a result with this many names may be missing some
+    private static final int FACET_LIMIT = 1000;
+    // keeps a query restricted to listed names well within NRQL's query length limit
+    private static final int IN_LIST_CHUNK_SIZE = 50;
+    private static final String nrqlFieldTemplate = "d%d: nrql(query:\\\"%s\\\",accounts:%s,timeout:200){results} ";
+    private static final String requestTemplate = "{\"query\":\"{actor{%s}}\",\"variables\":\"\"}";
+    private static final int DEFAULT_MAX_CONCURRENT_QUERIES = 4;
+    private static final int DEFAULT_BATCH_SIZE = 7;
+    private static final int DEFAULT_CONNECT_TIMEOUT_MS = 10_000;
+    // NerdGraph gives up on a NRQL query after the 200 second timeout set in nrqlFieldTemplate
+    private static final int DEFAULT_SOCKET_TIMEOUT_MS = 210_000;
+    private static final long DEFAULT_QUERY_DEADLINE_MS = TimeUnit.MINUTES.toMillis(10);
+    private static final long CANCEL_POLL_INTERVAL_MS = 100;
+    private static final Duration CACHE_GRACE_PERIOD = Duration.ofHours(6);
+    // bounds the requests in flight across all clients, and so across all open projects
+    private static final int MAX_SHARED_REQUESTS = 8;
+    private static final Semaphore SHARED_REQUEST_PERMITS = new Semaphore(MAX_SHARED_REQUESTS, true);
+    private static final long IDLE_CONNECTION_TIMEOUT_SECONDS = 30;
+    private CloseableHttpClient httpClient;
+    private int maxConcurrentQueries = DEFAULT_MAX_CONCURRENT_QUERIES;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private DailyCountsCache countsCache;
+    private CountsListener countsListener;
+    private RequestConfig requestConfig = createRequestConfig(DEFAULT_CONNECT_TIMEOUT_MS, DEFAULT_SOCKET_TIMEOUT_MS);
+    private long queryDeadlineMs = DEFAULT_QUERY_DEADLINE_MS;
+    private RetryPolicy retryPolicy = new RetryPolicy();
+    private QueryStrategy queryStrategy = QueryStrategy.WINDOW;
+    private List<String> metricNames;
+    private Clock clock = Clock.systemUTC();
+    private volatile boolean complete = true;
+
+    /**
+     * How a date range is queried.
+     */
+    public enum QueryStrategy {
+        /**
+         * One NRQL query per day, batched into requests of {@link #setBatchSize(int) batchSize} days.
+         */
+        PER_DAY,
+        /**
+         * A single NRQL query over the whole range, bucketed by day when the counts are cached.
+         * Falls back to {@link #PER_DAY} when the range has more names than the facet limit.
+         */
+        WINDOW
+    }
+
+    /**
+     * Receives the running totals of a date range query while it is in progress.
+     */
+    public interface CountsListener {
+
+        /**
+         * Called after the cached days are loaded and after each request completes, possibly from
+         * a query thread. The map is a copy the listener may keep.
+         * @param partialCounts the counts summed over the days which have completed so far
+         */
+        void countsUpdated(Map<String, Long> partialCounts);
+    }
 
+    /**
+     * Creates a client for the New Relic NerdGraph API. Unless a shared HTTP client is passed to
+     * {@link #setHttpClient(CloseableHttpClient)}, each query opens and closes its own connections.
+     */
     public NewRelicClient(String accountId, String apiKey, String appName, String numDays, String untilDate) {
-        this(accountId, apiKey, API_URL, appName, numDays, untilDate, HttpClientBuilder.create().build());
+        this(accountId, apiKey, API_URL, appName, numDays, untilDate, null);
     }
 
     @VisibleForTesting
@@ -64,71 +154,679 @@ public class NewRelicClient {
         this.httpClient = httpClient;
     }
 
+    /**
+     * Builds an HTTP client suitable for sharing between all New Relic clients: connections to the
+     * API are pooled and kept alive between refreshes, so repeated queries skip the TCP and TLS
+     * handshakes, and idle connections are closed in the background. The caller owns the client
+     * and must close it.
+     * @return a new pooled HTTP client
+     */
+    public static CloseableHttpClient createPooledHttpClient() {
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(MAX_SHARED_REQUESTS);
+        connectionManager.setDefaultMaxPerRoute(MAX_SHARED_REQUESTS);
+        connectionManager.setValidateAfterInactivity(2_000);
+        return HttpClientBuilder.create()
+                .setConnectionManager(connectionManager)
+                .evictExpiredConnections()
+                .evictIdleConnections(IDLE_CONNECTION_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                .build();
+    }
+
+    /**
+     * Sets the HTTP client used for the requests, which the New Relic client does not close.
+     * @param httpClient a shared HTTP client, e.g. from {@link #createPooledHttpClient()}
+     */
+    public void setHttpClient(CloseableHttpClient httpClient) {
+        this.httpClient = httpClient;
+    }
+
+    /**
+     * Sets how many per-day queries may be in flight at once when querying a date range.
+     * Values above the connection pool size of the underlying HTTP client will queue for a connection.
+     * @param maxConcurrentQueries the maximum number of concurrent queries, 1 to run them sequentially
+     */
+    public void setMaxConcurrentQueries(int maxConcurrentQueries) {
+        this.maxConcurrentQueries = Math.max(1, maxConcurrentQueries);
+    }
+
+    /**
+     * Sets how many per-day queries are packed into a single NerdGraph request when querying a date range.
+     * Each day becomes an aliased {@code nrql} field of the same GraphQL document.
+     * @param batchSize the maximum number of days per request, 1 to send one request per day
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * Sets the cache of per-day counts used when querying a date range. Days which are cached are
+     * not queried again, and completed days which had to be queried are added to the cache.
+     * @param countsCache the cache to use, or null to always query every day
+     */
+    public void setCountsCache(DailyCountsCache countsCache) {
+        this.countsCache = countsCache;
+    }
+
+    /**
+     * Sets the listener which is sent the partial counts as the days of a date range query complete,
+     * before {@link #query(ProgressIndicator)} returns the final counts.
+     * @param countsListener the listener to notify, or null to only return the final counts
+     */
+    public void setCountsListener(CountsListener countsListener) {
+        this.countsListener = countsListener;
+    }
+
+    /**
+     * Sets the timeouts of each HTTP request. The connect timeout also bounds the wait for a pooled
+     * connection; the socket timeout bounds the wait for the next bytes of the response.
+     * @param connectTimeoutMs the connect timeout in milliseconds
+     * @param socketTimeoutMs  the socket read timeout in milliseconds
+     */
+    public void setTimeouts(int connectTimeoutMs, int socketTimeoutMs) {
+        this.requestConfig = createRequestConfig(connectTimeoutMs, socketTimeoutMs);
+    }
+
+    /**
+     * Sets how long {@link #query(ProgressIndicator)} may run in total. When the deadline passes the
+     * requests still in flight are aborted and the counts gathered so far are returned.
+     * @param queryDeadlineMs the overall deadline in milliseconds
+     */
+    public void setQueryDeadline(long queryDeadlineMs) {
+        this.queryDeadlineMs = queryDeadlineMs;
+    }
+
+    /**
+     * Sets how a date range is queried.
+     * @param queryStrategy the query strategy, {@link QueryStrategy#WINDOW} by default
+     */
+    public void setQueryStrategy(QueryStrategy queryStrategy) {
+        this.queryStrategy = queryStrategy;
+    }
+
+    /**
+     * Tells whether the last {@link #query(ProgressIndicator)} returned every count: false if it was
+     * canceled, ran past its deadline or any of its requests failed, in which case the counts
+     * returned are only those of the requests which succeeded.
+     * @return true if the last query completed, or no query has run yet
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Restricts the queries to the given metric names, e.g. those of the traces found in the project,
+     * so that New Relic only scans and returns the counts which are shown. The names are sent in
+     * {@code name IN (...)} lists of at most 50 names each. A name containing a quote or backslash
+     * cannot be listed safely, so any such name turns the restriction off.
+     * @param metricNames the metric names without the custom transaction prefix, or null to count all names
+     */
+    public void setMetricNames(Collection<String> metricNames) {
+        if (metricNames == null || metricNames.isEmpty()
+                || metricNames.stream().anyMatch(name -> StringUtils.containsAny(name, '\'', '"', '\\'))) {
+            this.metricNames = null;
+        } else {
+            this.metricNames = new ArrayList<>(new TreeSet<>(metricNames));
+        }
+    }
+
+    @VisibleForTesting
+    void setClock(Clock clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * Sets the policy deciding which failed requests are sent again and after what delay.
+     * @param retryPolicy the retry policy to use
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * Identifies the counts this client queries: clients with the same key return the same counts,
+     * so a {@link QueryCoalescer} lets them share one query.
+     */
+    String getQueryKey() {
+        return String.join("\n", nrUrl, accountId, apiKey, appName, numDays, StringUtils.defaultString(untilDate),
+                metricNames == null ? "*" : String.join(",", metricNames));
+    }
+
+    private static RequestConfig createRequestConfig(int connectTimeoutMs, int socketTimeoutMs) {
+        return RequestConfig.custom()
+                .setConnectTimeout(connectTimeoutMs)
+                .setConnectionRequestTimeout(connectTimeoutMs)
+                .setSocketTimeout(socketTimeoutMs)
+                .build();
+    }
+
     /**
      * Performs an HTTP query to the configured New Relic NerdGraph API service endpoint, retrieving
      * query results in JSON format and transforming them to a map of metric to counts.
+     * Without an until date, the last days are counted up to now. With a counts cache, that window
+     * is queried as its whole UTC days plus its partial first and last days, like a date range.
+     * When querying a date range with the {@link QueryStrategy#WINDOW} strategy, all days which are
+     * not cached are first queried at once. Otherwise, or when that query hits the facet limit,
+     * the per-day queries are grouped into requests of
+     * {@link #setBatchSize(int) batchSize} days, the requests are issued concurrently, bounded by
+     * {@link #setMaxConcurrentQueries(int)}, and their counts are summed. Days found in the
+     * {@link #setCountsCache(DailyCountsCache) counts cache} are not queried. The running totals are
+     * sent to the {@link #setCountsListener(CountsListener) counts listener} as requests complete.
+     * Any query whose result reaches the facet limit of 1000 names is split into smaller queries over
+     * halves of its time window or, for a single day, over partitions of the names, which are issued
+     * in parallel until each result is complete.
+     * If the indicator is canceled or the {@link #setQueryDeadline(long) deadline} passes, the requests
+     * in flight are aborted and the counts of the requests which completed are returned;
+     * {@link #isComplete()} then tells the partial result apart.
      * @return a Map whose keys are metric names and whose values are query result counts.
      */
     public Map<String, Long> query(ProgressIndicator indicator) {
+        if (httpClient != null) {
+            return query(indicator, httpClient);
+        }
+        CloseableHttpClient ownHttpClient = createPooledHttpClient();
+        try {
+            return query(indicator, ownHttpClient);
+        } finally {
+            HttpClientUtils.closeQuietly(ownHttpClient);
+        }
+    }
+
+    private Map<String, Long> query(ProgressIndicator indicator, CloseableHttpClient httpClient) {
+        complete = false;
 
-        List<String> traceQueries = new ArrayList<>();
+        List<List<String>> nameLists = metricNames == null
+                ? Collections.singletonList(null) : Lists.partition(metricNames, IN_LIST_CHUNK_SIZE);
+        List<TraceQuery> traceQueries = new ArrayList<>();
         if (StringUtils.isBlank(untilDate)) {
-            traceQueries.add(String.format(defaultTraceQueryTemplate, appName, numDays, accountId));
+            // the window is fixed once, so that the parts of a split query still meet; when days are
+            // cached, it is queried by day so that only its partial first and last days are fetched again
+            Instant now = clock.instant();
+            Instant since = now.minus(Duration.ofDays(Integer.parseInt(numDays)));
+            List<QueryScope> scopes = countsCache == null
+                    ? Collections.singletonList(QueryScope.ofWindow(since, now)) : getLastDaysScopes(since, now);
+            for (QueryScope scope : scopes) {
+                LocalDate day = scope.getWholeDay();
+                for (List<String> names : nameLists) {
+                    traceQueries.add(createTraceQuery(restrict(scope, names), day));
+                }
+            }
         } else {
-            String endDate = untilDate;
+            LocalDate endDate = LocalDate.parse(untilDate);
             for (int i = 0; i < Integer.parseInt(numDays); i++) {
-                String prevDate = LocalDate.parse(endDate).minusDays(1).toString();
-                traceQueries.add(String.format(dateRangeTraceQueryTemplate, appName, prevDate, endDate, accountId));
+                LocalDate prevDate = endDate.minusDays(1);
+                for (List<String> names : nameLists) {
+                    traceQueries.add(createTraceQuery(restrict(QueryScope.ofDays(prevDate, endDate), names), prevDate));
+                }
                 endDate = prevDate;
             }
         }
 
-        Map<String, Long> countsByName = new LinkedHashMap<>(120);
-        for (String traceQuery : traceQueries) {
-            String whereClause = traceQuery.substring(traceQuery.indexOf("appName"), traceQuery.indexOf("FACET"));
-            if (indicator != null) {
-                indicator.setText("Running New Relic query: " + whereClause);
+        // the requests run on query threads so this thread can abort them when canceled or out of time
+        QueryRun run = new QueryRun(httpClient, indicator);
+        if (countsCache != null) {
+            int numQueries = traceQueries.size();
+            traceQueries = loadCachedDays(run.countsByName, traceQueries, indicator);
+            if (traceQueries.size() < numQueries) {
+                publishCounts(run.countsByName);
+            }
+        }
+
+        if (traceQueries.isEmpty()) {
+            run.executor.shutdown();
+            complete = true;
+            return run.countsByName;
+        }
+
+        long deadline = System.currentTimeMillis() + queryDeadlineMs;
+        try {
+            // only whole days can be queried as one window bucketed by day
+            List<TraceQuery> dayQueries = new ArrayList<>(traceQueries.size());
+            List<TraceQuery> partialDayQueries = new ArrayList<>();
+            for (TraceQuery traceQuery : traceQueries) {
+                (traceQuery.day != null ? dayQueries : partialDayQueries).add(traceQuery);
+            }
+            if (queryStrategy == QueryStrategy.WINDOW && dayQueries.size() > nameLists.size()) {
+                reportQueryStarted(indicator, dayQueries);
+                Future<List<TraceQuery>> window = run.executor.submit(() -> queryWindow(run, dayQueries));
+                awaitOrAbort(run, window, deadline);
+                traceQueries = run.aborted.get() ? new ArrayList<>() : new ArrayList<>(window.get());
+                if (traceQueries.isEmpty()) {
+                    publishCounts(run.countsByName);
+                }
+                if (!run.aborted.get()) {
+                    traceQueries.addAll(partialDayQueries);
+                }
+                if (traceQueries.isEmpty()) {
+                    reportQueryCompleted(indicator, 1, 1);
+                }
+            }
+
+            submitBatches(run, traceQueries);
+            // a request whose result has to be split queues its parts before it completes
+            Future<?> future;
+            while ((future = run.pending.poll()) != null) {
+                awaitOrAbort(run, future, deadline);
+            }
+        } catch (InterruptedException e) {
+            abort(run);
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            run.failed.set(true);
+            e.printStackTrace();
+        } finally {
+            run.executor.shutdownNow();
+        }
+
+        complete = !run.aborted.get() && !run.failed.get();
+        return run.countsByName;
+    }
+
+    /**
+     * Divides a window into the scopes of its whole UTC days, which can be cached, and of the partial
+     * days at its start and end, which are queried every time.
+     */
+    private static List<QueryScope> getLastDaysScopes(Instant since, Instant until) {
+        List<QueryScope> scopes = new ArrayList<>();
+        LocalDate day = since.atZone(ZoneOffset.UTC).toLocalDate();
+        Instant dayStart = day.atStartOfDay(ZoneOffset.UTC).toInstant();
+        if (dayStart.isBefore(since)) {
+            day = day.plusDays(1);
+            dayStart = day.atStartOfDay(ZoneOffset.UTC).toInstant();
+            scopes.add(QueryScope.ofWindow(since, dayStart.isBefore(until) ? dayStart : until));
+        }
+        for (; dayStart.isBefore(until); day = day.plusDays(1)) {
+            Instant dayEnd = day.plusDays(1).atStartOfDay(ZoneOffset.UTC).toInstant();
+            scopes.add(dayEnd.isAfter(until) ? QueryScope.ofWindow(dayStart, until) : QueryScope.ofDays(day, day.plusDays(1)));
+            dayStart = dayEnd;
+        }
+        return scopes;
+    }
+
+    private static QueryScope restrict(QueryScope scope, List<String> names) {
+        return names == null ? scope : scope.withNames(names);
+    }
+
+    private TraceQuery createTraceQuery(QueryScope scope, LocalDate day) {
+        return new TraceQuery(String.format(traceQueryTemplate, scope.getNameCondition(), appName, scope.getTimeClause()), scope, day);
+    }
+
+    private void submitBatches(QueryRun run, List<TraceQuery> traceQueries) {
+        List<List<TraceQuery>> batches = Lists.partition(traceQueries, batchSize);
+        run.submitted.addAndGet(batches.size());
+        for (List<TraceQuery> batch : batches) {
+            run.pending.add(run.executor.submit(() -> {
+                if (run.aborted.get()) {
+                    return;
+                }
+                reportQueryStarted(run.indicator, batch);
+                queryAndCount(run, batch);
+                publishCounts(run.countsByName);
+                reportQueryCompleted(run.indicator, run.completed.incrementAndGet(), run.submitted.get());
+            }));
+        }
+    }
+
+    /**
+     * Queries the given days with a single NRQL query spanning from the first to the last of them,
+     * one per list of names when the queries are restricted to names. The results are bucketed by
+     * day when the days are cached, so that each day can be stored and days within the span which
+     * are not asked for can be left out.
+     * @return the days which still have to be queried one by one, because a query over the span had
+     *         at least as many names as the facet limit; empty if the counts were merged or the request failed
+     */
+    private List<TraceQuery> queryWindow(QueryRun run, List<TraceQuery> dayQueries) {
+        LocalDate firstDay = dayQueries.get(0).day;
+        LocalDate lastDay = firstDay;
+        List<List<String>> nameLists = new ArrayList<>();
+        for (TraceQuery dayQuery : dayQueries) {
+            firstDay = dayQuery.day.isBefore(firstDay) ? dayQuery.day : firstDay;
+            lastDay = dayQuery.day.isAfter(lastDay) ? dayQuery.day : lastDay;
+            if (!nameLists.contains(dayQuery.scope.getNames())) {
+                nameLists.add(dayQuery.scope.getNames());
+            }
+        }
+        boolean byDay = countsCache != null;
+        List<TraceQuery> windowQueries = new ArrayList<>(nameLists.size());
+        for (List<String> names : nameLists) {
+            QueryScope scope = restrict(QueryScope.ofDays(firstDay, lastDay.plusDays(1)), names);
+            String nrql = String.format(byDay ? timeseriesTraceQueryTemplate : traceQueryTemplate,
+                    scope.getNameCondition(), appName, scope.getTimeClause());
+            windowQueries.add(new TraceQuery(nrql, scope, null));
+        }
+
+        Map<String, Map<LocalDate, Map<String, Long>>> countsByAliasAndDay = new HashMap<>();
+        Map<String, Map<String, Long>> countsByAlias = new HashMap<>();
+        boolean read = executeWithRetry(run, buildRequestBody(windowQueries), bodyStream -> {
+            countsByAliasAndDay.clear();
+            countsByAlias.clear();
+            if (byDay) {
+                NerdGraphResponseReader.readDailyCounts(bodyStream, (alias, day) -> countsByAliasAndDay
+                        .computeIfAbsent(alias, a -> new HashMap<>())
+                        .computeIfAbsent(day, d -> new HashMap<>()));
+            } else {
+                NerdGraphResponseReader.readCounts(bodyStream, alias -> countsByAlias.computeIfAbsent(alias, a -> new HashMap<>()));
+            }
+        });
+        if (!read) {
+            run.failed.set(true);
+            return Collections.emptyList();
+        }
+
+        if (byDay) {
+            countsByAliasAndDay.forEach((alias, countsByDay) -> {
+                Map<String, Long> aliasCounts = countsByAlias.computeIfAbsent(alias, a -> new HashMap<>());
+                for (Map<String, Long> dayCounts : countsByDay.values()) {
+                    dayCounts.forEach((metricName, count) -> aliasCounts.merge(metricName, count, Long::sum));
+                }
+            });
+        }
+        for (Map<String, Long> aliasCounts : countsByAlias.values()) {
+            if (aliasCounts.size() >= FACET_LIMIT) {
+                return dayQueries;
             }
-            //System.out.println("traceQuery: " + whereClause);
+        }
 
-            queryAndCount(countsByName, traceQuery);
+        if (!byDay) {
+            mergeCounts(run.countsByName, countsByAlias.values());
+            return Collections.emptyList();
+        }
+        List<Map<String, Long>> requestedCounts = new ArrayList<>(dayQueries.size());
+        for (TraceQuery dayQuery : dayQueries) {
+            // a day without any bucket had no transactions
+            String alias = "d" + nameLists.indexOf(dayQuery.scope.getNames());
+            Map<String, Long> dayCounts = countsByAliasAndDay.getOrDefault(alias, Collections.emptyMap())
+                    .getOrDefault(dayQuery.day, Collections.emptyMap());
+            if (isCacheable(dayQuery)) {
+                cacheDay(dayQuery, dayCounts);
+            }
+            requestedCounts.add(dayCounts);
         }
+        mergeCounts(run.countsByName, requestedCounts);
+        return Collections.emptyList();
+    }
 
-        return countsByName;
+    /**
+     * Waits for a request to complete, checking for cancellation of the indicator while it runs.
+     * @throws TimeoutException if the query deadline passed, after aborting the requests in flight
+     */
+    private static void awaitOrAbort(QueryRun run, Future<?> future, long deadline)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        while (!run.aborted.get()) {
+            try {
+                future.get(CANCEL_POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                return;
+            } catch (TimeoutException e) {
+                if (run.indicator != null && run.indicator.isCanceled()) {
+                    abort(run);
+                } else if (System.currentTimeMillis() > deadline) {
+                    abort(run);
+                    throw new TimeoutException("New Relic query did not complete before its deadline");
+                }
+            }
+        }
     }
 
-    private void queryAndCount(Map<String, Long> countsByName, String traceQuery) {
+    /**
+     * Stops any further requests and aborts those in flight. A request registers itself before
+     * checking the flag, so every request either sees the flag or is aborted here.
+     */
+    private static void abort(QueryRun run) {
+        run.aborted.set(true);
+        for (HttpPost httpPost : run.inFlight) {
+            httpPost.abort();
+        }
+    }
+
+    /**
+     * Merges the counts of all cached days into the given map. When the queries are restricted to
+     * names, a day cached with the counts of all names is used in place of all its restricted queries,
+     * and otherwise each list of names whose counts are all cached for the day is taken from the cache.
+     * @return the queries for the days which still have to be fetched from New Relic
+     */
+    private List<TraceQuery> loadCachedDays(Map<String, Long> countsByName, List<TraceQuery> traceQueries, ProgressIndicator indicator) {
+        List<TraceQuery> uncachedQueries = new ArrayList<>(traceQueries.size());
+        Map<LocalDate, Boolean> completeDays = new HashMap<>();
+        Map<LocalDate, Map<String, Long>> namedDays = new HashMap<>();
+        Set<LocalDate> cachedDays = new HashSet<>();
+        for (TraceQuery traceQuery : traceQueries) {
+            if (!isCacheable(traceQuery)) {
+                uncachedQueries.add(traceQuery);
+                continue;
+            }
+            List<String> names = traceQuery.scope.getNames();
+            if (names != null && completeDays.computeIfAbsent(traceQuery.day, day -> {
+                Map<String, Long> completeCounts = countsCache.get(accountId, appName, day);
+                if (completeCounts != null) {
+                    completeCounts.forEach((metricName, count) -> countsByName.merge(metricName, count, Long::sum));
+                }
+                return completeCounts != null;
+            })) {
+                cachedDays.add(traceQuery.day);
+                continue;
+            }
+            if (names == null) {
+                Map<String, Long> cachedCounts = countsCache.get(accountId, appName, traceQuery.day);
+                if (cachedCounts == null) {
+                    uncachedQueries.add(traceQuery);
+                } else {
+                    cachedDays.add(traceQuery.day);
+                    cachedCounts.forEach((metricName, count) -> countsByName.merge(metricName, count, Long::sum));
+                }
+                continue;
+            }
+            Map<String, Long> namedCounts = namedDays.computeIfAbsent(traceQuery.day, day -> {
+                Map<String, Long> cachedCounts = countsCache.getNamed(accountId, appName, day);
+                return cachedCounts == null ? Collections.emptyMap() : cachedCounts;
+            });
+            if (!namedCounts.keySet().containsAll(names)) {
+                uncachedQueries.add(traceQuery);
+                continue;
+            }
+            cachedDays.add(traceQuery.day);
+            for (String name : names) {
+                // names without transactions are cached as 0 but not returned by a query
+                long count = namedCounts.get(name);
+                if (count != 0) {
+                    countsByName.merge(name, count, Long::sum);
+                }
+            }
+        }
+        if (indicator != null && !cachedDays.isEmpty()) {
+            indicator.setText2("Loaded " + cachedDays.size() + " days from cache");
+        }
+        return uncachedQueries;
+    }
+
+    private void cacheDay(TraceQuery dayQuery, Map<String, Long> dayCounts) {
+        List<String> names = dayQuery.scope.getNames();
+        if (names == null) {
+            countsCache.put(accountId, appName, dayQuery.day, dayCounts);
+        } else {
+            countsCache.putNamed(accountId, appName, dayQuery.day, names, dayCounts);
+        }
+    }
+
+    /**
+     * Only days which ended in UTC at least {@link #CACHE_GRACE_PERIOD} ago are cached: the counts for
+     * today are still growing, and events of a day which just ended may still be ingested late.
+     * A cached day is never queried again.
+     */
+    private boolean isCacheable(TraceQuery traceQuery) {
+        return traceQuery.day != null && !traceQuery.day.plusDays(1).atStartOfDay(ZoneOffset.UTC).toInstant()
+                .plus(CACHE_GRACE_PERIOD).isAfter(clock.instant());
+    }
+
+    /**
+     * Sends a copy of the running totals to the counts listener. Batches merge their counts while
+     * holding the map's lock, so the copy never contains half of a batch.
+     */
+    private void publishCounts(Map<String, Long> countsByName) {
+        CountsListener listener = countsListener;
+        if (listener != null) {
+            Map<String, Long> partialCounts;
+            synchronized (countsByName) {
+                partialCounts = new HashMap<>(countsByName);
+            }
+            listener.countsUpdated(partialCounts);
+        }
+    }
+
+    private static void reportQueryStarted(ProgressIndicator indicator, List<TraceQuery> batch) {
+        if (indicator != null) {
+            String whereClause = getWhereClause(batch.get(0).nrql);
+            if (batch.size() > 1) {
+                whereClause += "(+" + (batch.size() - 1) + " more queries)";
+            }
+            indicator.setText("Running New Relic query: " + whereClause);
+        }
+    }
+
+    private static void reportQueryCompleted(ProgressIndicator indicator, int completed, int total) {
+        if (indicator != null) {
+            indicator.setIndeterminate(false);
+            indicator.setFraction((double) completed / total);
+        }
+    }
+
+    private static String getWhereClause(String traceQuery) {
+        return traceQuery.substring(traceQuery.indexOf("appName"), traceQuery.indexOf("FACET"));
+    }
+
+    /**
+     * Builds a single NerdGraph request body for the given NRQL queries, aliasing each
+     * {@code nrql} field as {@code d0}, {@code d1}, ... so their results can be told apart.
+     */
+    private String buildRequestBody(List<TraceQuery> traceQueries) {
+        StringBuilder fields = new StringBuilder();
+        for (int i = 0; i < traceQueries.size(); i++) {
+            fields.append(String.format(nrqlFieldTemplate, i, traceQueries.get(i).nrql, accountId));
+        }
+        return String.format(requestTemplate, fields.toString().trim());
+    }
+
+    private void queryAndCount(QueryRun run, List<TraceQuery> traceQueries) {
+        if (!executeWithRetry(run, buildRequestBody(traceQueries), bodyStream -> readCounts(run, traceQueries, bodyStream))) {
+            run.failed.set(true);
+        }
+    }
+
+    /**
+     * Reads the body of a successful response.
+     */
+    private interface ResponseReader {
+        void read(InputStream bodyStream) throws IOException;
+    }
+
+    /**
+     * Posts a NerdGraph request, sending it again as the retry policy allows until it succeeds.
+     * @return true if a successful response was read, false if the request failed or was aborted
+     */
+    private boolean executeWithRetry(QueryRun run, String requestBody, ResponseReader responseReader) {
 
         HttpPost httpPost = new HttpPost(URI.create(nrUrl));
+        httpPost.setConfig(requestConfig);
         httpPost.addHeader("Content-Type", "application/json");
         httpPost.addHeader("API-Key", apiKey);
-        httpPost.setEntity(new StringEntity(traceQuery.replace("'", "\\u0027"), ContentType.APPLICATION_JSON));
-
-        int responseCode = 0;
-        int tries = 0;
-
-        while (responseCode != 200 && tries < 2) {
-            ++tries;
-            try (CloseableHttpResponse response = httpClient.execute(httpPost)) {
-                responseCode = response.getStatusLine().getStatusCode();
-                if (responseCode == 200) {
-                    // extract response json
-                    InputStream bodyStream = response.getEntity().getContent();
-                    ObjectMapper om = new ObjectMapper();
-                    JsonNode json = om.readTree(bodyStream);
-                    // expect: {"data":{"actor":{"nrql":{"results":[{"facet":"...","count":...,"name":"..."}, { etc... }]}}}}
-                    JsonNode resultsNode = json.get("data").get("actor").get("nrql").get("results");
-                    if (resultsNode != null) {
-                        for (JsonNode element : resultsNode) {
-                            String metricName = element.get("name").asText();
-                            metricName = metricName.replace("WebTransaction/Custom/", "");
-                            Long count = element.get("count").asLong();
-                            countsByName.merge(metricName, count, Long::sum);
-                        }
+        httpPost.setEntity(new StringEntity(requestBody.replace("'", "\\u0027"), ContentType.APPLICATION_JSON));
+
+        for (int attempt = 1; ; attempt++) {
+            long delayMs;
+            run.inFlight.add(httpPost);
+            try {
+                if (run.aborted.get()) {
+                    return false;
+                }
+                SHARED_REQUEST_PERMITS.acquire();
+                try (CloseableHttpResponse response = run.httpClient.execute(httpPost)) {
+                    int responseCode = response.getStatusLine().getStatusCode();
+                    if (responseCode == 200) {
+                        responseReader.read(response.getEntity().getContent());
+                        return true;
+                    }
+                    EntityUtils.consumeQuietly(response.getEntity());
+                    if (!retryPolicy.isRetryable(responseCode) || attempt >= retryPolicy.getMaxAttempts()) {
+                        LOG.warn("New Relic query to " + nrUrl + " failed with status " + responseCode
+                                + " after " + attempt + " attempts");
+                        return false;
                     }
+                    delayMs = retryPolicy.getDelayMs(attempt, response.getFirstHeader("Retry-After"));
+                } finally {
+                    SHARED_REQUEST_PERMITS.release();
                 }
             } catch (IOException e) {
-                e.printStackTrace();
+                if (run.aborted.get()) {
+                    return false;
+                }
+                if (attempt >= retryPolicy.getMaxAttempts()) {
+                    e.printStackTrace();
+                    return false;
+                }
+                delayMs = retryPolicy.getDelayMs(attempt, null);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            } finally {
+                run.inFlight.remove(httpPost);
+            }
+
+            // the query pool is shut down with interrupts, which also ends the wait when the query is aborted
+            try {
+                Thread.sleep(delayMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Extracts the counts of a successful response, keeping each aliased query's counts apart until
+     * the response is complete, then caches the completed days and adds all counts to the totals.
+     * A query whose result reached the facet limit is queued again as smaller queries instead.
+     * If its scope cannot be split any further, its counts are kept but the query is incomplete.
+     */
+    private void readCounts(QueryRun run, List<TraceQuery> traceQueries, InputStream bodyStream) throws IOException {
+        Map<String, Map<String, Long>> countsByAlias = new HashMap<>();
+        NerdGraphResponseReader.readCounts(bodyStream, alias -> countsByAlias.computeIfAbsent(alias, a -> new HashMap<>()));
+        List<TraceQuery> splitQueries = new ArrayList<>();
+        for (int i = 0; i < traceQueries.size(); i++) {
+            String alias = "d" + i;
+            Map<String, Long> aliasCounts = countsByAlias.get(alias);
+            if (aliasCounts == null) {
+                // NerdGraph answers a failed query of the request with null instead of a results array
+                run.failed.set(true);
+                continue;
+            }
+            boolean saturated = aliasCounts.size() >= FACET_LIMIT;
+            List<QueryScope> parts = saturated ? traceQueries.get(i).scope.split() : Collections.emptyList();
+            if (!parts.isEmpty()) {
+                countsByAlias.remove(alias);
+                // the day is not cached, as its counts are spread over the parts
+                for (QueryScope part : parts) {
+                    splitQueries.add(createTraceQuery(part, null));
+                }
+            } else if (saturated) {
+                // names past the facet limit are missing, so the counts are incomplete and not cached
+                run.failed.set(true);
+            } else if (countsCache != null && isCacheable(traceQueries.get(i))) {
+                cacheDay(traceQueries.get(i), aliasCounts);
+            }
+        }
+        mergeCounts(run.countsByName, countsByAlias.values());
+        if (!splitQueries.isEmpty()) {
+            submitBatches(run, splitQueries);
+        }
+    }
+
+    /**
+     * Adds the counts of one request to the totals, holding the lock so that a published copy of
+     * the totals never contains part of a request.
+     */
+    static void mergeCounts(Map<String, Long> countsByName, Iterable<Map<String, Long>> requestCounts) {
+        synchronized (countsByName) {
+            for (Map<String, Long> counts : requestCounts) {
+                counts.forEach((metricName, count) -> countsByName.merge(metricName, count, Long::sum));
             }
         }
     }
@@ -146,4 +844,42 @@ public class NewRelicClient {
         return String.format(INSIGHTS_URL, accountId);
     }
 
+    /**
+     * The state shared by the requests of one call to {@link #query(ProgressIndicator)}.
+     */
+    private final class QueryRun {
+        private final CloseableHttpClient httpClient;
+        private final ProgressIndicator indicator;
+        private final Map<String, Long> countsByName = new ConcurrentHashMap<>(120);
+        private final AtomicBoolean aborted = new AtomicBoolean();
+        // set when a request failed for good, so some counts are missing
+        private final AtomicBoolean failed = new AtomicBoolean();
+        private final Set<HttpPost> inFlight = Collections.newSetFromMap(new ConcurrentHashMap<>());
+        private final Queue<Future<?>> pending = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger submitted = new AtomicInteger();
+        private final AtomicInteger completed = new AtomicInteger();
+        private final ExecutorService executor = Executors.newFixedThreadPool(maxConcurrentQueries,
+                new ThreadFactoryBuilder().setNameFormat("Trace Metrics Query %d").setDaemon(true).build());
+
+        QueryRun(CloseableHttpClient httpClient, ProgressIndicator indicator) {
+            this.httpClient = httpClient;
+            this.indicator = indicator;
+        }
+    }
+
+    /**
+     * A single NRQL query and its scope, along with the UTC day it covers when it counts a whole day
+     * of a date range.
+     */
+    private static class TraceQuery {
+        private final String nrql;
+        private final QueryScope scope;
+        private final LocalDate day;
+
+        TraceQuery(String nrql, QueryScope scope, LocalDate day) {
+            this.nrql = nrql;
+            this.scope = scope;
+            this.day = day;
+        }
+    }
 }
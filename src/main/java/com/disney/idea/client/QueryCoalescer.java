@@ -0,0 +1,81 @@
+package com.disney.idea.client;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.intellij.openapi.progress.ProgressIndicator;
+
+/**
+ * Lets concurrent queries for the same counts share one fetch, as when two open projects are
+ * configured with the same account and application. The first query for a key runs and the others
+ * wait for its result. The key is dropped once that query completes, so later refreshes fetch again.
+ * Only complete counts are shared: when the running query is canceled, runs past its deadline or has
+ * requests fail, the waiting queries run on their own.
+ */
+public class QueryCoalescer {
+
+    private static final long CANCEL_POLL_INTERVAL_MS = 100;
+
+    // the result is null when the running query did not complete
+    private final ConcurrentMap<String, CompletableFuture<Map<String, Long>>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * Runs the client's query, or waits for the result of the same query already running.
+     * If that query does not complete, the client runs its own query instead.
+     * @param client    the client to query with
+     * @param indicator the progress indicator of the caller, or null
+     * @return a Map of metric name to count, or null if the caller was canceled while waiting
+     */
+    public Map<String, Long> query(NewRelicClient client, ProgressIndicator indicator) {
+        String key = client.getQueryKey();
+        CompletableFuture<Map<String, Long>> running = new CompletableFuture<>();
+        CompletableFuture<Map<String, Long>> existing = inFlight.putIfAbsent(key, running);
+        if (existing != null) {
+            if (indicator != null) {
+                indicator.setText2("Waiting for the same query from another project");
+            }
+            Map<String, Long> shared = await(existing, indicator);
+            if (shared != null) {
+                return shared;
+            }
+            return indicator != null && indicator.isCanceled() ? null : client.query(indicator);
+        }
+
+        Map<String, Long> counts = null;
+        try {
+            counts = client.query(indicator);
+            return counts;
+        } finally {
+            inFlight.remove(key, running);
+            running.complete(counts != null && client.isComplete() ? counts : null);
+        }
+    }
+
+    /**
+     * @return a copy of the shared counts, or null if the caller was canceled or the shared query
+     *         did not complete
+     */
+    private static Map<String, Long> await(CompletableFuture<Map<String, Long>> future, ProgressIndicator indicator) {
+        while (indicator == null || !indicator.isCanceled()) {
+            try {
+                Map<String, Long> counts = future.get(CANCEL_POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                return counts == null ? null : new HashMap<>(counts);
+            } catch (TimeoutException e) {
+                // poll the caller's cancel state again
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                // never completed exceptionally
+                return null;
+            }
+        }
+        return null;
+    }
+}
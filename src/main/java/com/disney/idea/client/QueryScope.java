@@ -0,0 +1,154 @@
+package com.disney.idea.client;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The custom transactions a single NRQL query counts: those in a time window whose names fall in a
+ * range of name prefixes. When a query's result reaches the facet limit it may be missing names, so
+ * its scope is split into smaller scopes which together cover exactly the same transactions.
+ * The time window is halved down to a single day; after that the names are partitioned by their
+ * next character, with one more scope for the names continuing with any other character.
+ * A scope may instead be restricted to a list of names, which is split in half.
+ * The window is always between two fixed instants, so that the parts of a split scope, which are
+ * queried at different times, still meet exactly.
+ */
+final class QueryScope {
+
+    private static final String NAME_PREFIX = "WebTransaction/Custom/";
+    // NRQL's LIKE may ignore case, so the partitions only use one case to stay disjoint
+    private static final String PARTITION_CHARACTERS = "abcdefghijklmnopqrstuvwxyz0123456789";
+    private static final int MAX_PREFIX_LENGTH = 3;
+    private static final Duration DAY = Duration.ofDays(1);
+
+    private final Instant since;
+    private final Instant until;
+    private final String namePrefix;
+    private final List<String> excludedPrefixes;
+    // null unless only the listed names are counted
+    private final List<String> names;
+
+    private QueryScope(Instant since, Instant until, String namePrefix, List<String> excludedPrefixes, List<String> names) {
+        this.since = since;
+        this.until = until;
+        this.namePrefix = namePrefix;
+        this.excludedPrefixes = excludedPrefixes;
+        this.names = names;
+    }
+
+    /**
+     * @return the scope of all custom transactions from the start of {@code since} to the start of {@code until}
+     */
+    static QueryScope ofDays(LocalDate since, LocalDate until) {
+        return ofWindow(since.atStartOfDay(ZoneOffset.UTC).toInstant(), until.atStartOfDay(ZoneOffset.UTC).toInstant());
+    }
+
+    /**
+     * @return the scope of all custom transactions from {@code since} to {@code until}
+     */
+    static QueryScope ofWindow(Instant since, Instant until) {
+        return new QueryScope(since, until, "", Collections.emptyList(), null);
+    }
+
+    /**
+     * @param names metric names without the custom transaction prefix, which must not contain quotes
+     * @return a scope over the same time window which only counts the given names
+     */
+    QueryScope withNames(List<String> names) {
+        return new QueryScope(since, until, "", Collections.emptyList(), names);
+    }
+
+    /**
+     * @return the list of names the scope is restricted to, or null if it is not
+     */
+    List<String> getNames() {
+        return names;
+    }
+
+    /**
+     * @return the UTC day the time window spans exactly, or null if it is not a single whole day
+     */
+    LocalDate getWholeDay() {
+        return isStartOfDay(since) && Duration.between(since, until).equals(DAY) ? toDate(since) : null;
+    }
+
+    /**
+     * @return the NRQL {@code SINCE} and {@code UNTIL} clauses of the time window, as UTC dates when
+     *         it spans whole days and as epoch milliseconds otherwise
+     */
+    String getTimeClause() {
+        if (isStartOfDay(since) && isStartOfDay(until)) {
+            return String.format("SINCE '%s' UNTIL '%s'", toDate(since), toDate(until));
+        }
+        return String.format("SINCE %d UNTIL %d", since.toEpochMilli(), until.toEpochMilli());
+    }
+
+    /**
+     * @return the NRQL conditions on the transaction name
+     */
+    String getNameCondition() {
+        if (names != null) {
+            StringBuilder condition = new StringBuilder("name IN (");
+            for (int i = 0; i < names.size(); i++) {
+                condition.append(i > 0 ? ", '" : "'").append(NAME_PREFIX).append(names.get(i)).append("'");
+            }
+            return condition.append(")").toString();
+        }
+        StringBuilder condition = new StringBuilder("name LIKE '").append(NAME_PREFIX).append(namePrefix).append("%'");
+        for (String excludedPrefix : excludedPrefixes) {
+            condition.append(" AND name NOT LIKE '").append(NAME_PREFIX).append(excludedPrefix).append("%'");
+        }
+        return condition.toString();
+    }
+
+    /**
+     * Splits the scope into disjoint scopes which together cover the same transactions.
+     * @return the smaller scopes, or an empty list if this scope cannot be split any further
+     */
+    List<QueryScope> split() {
+        Duration window = Duration.between(since, until);
+        if (window.compareTo(DAY) > 0) {
+            // a window of whole days is split at a day boundary, so both halves stay whole days
+            Instant middle = isStartOfDay(since) && isStartOfDay(until)
+                    ? since.plus(DAY.multipliedBy(window.toDays() / 2)) : since.plus(window.dividedBy(2));
+            List<QueryScope> halves = new ArrayList<>(2);
+            halves.add(new QueryScope(since, middle, namePrefix, excludedPrefixes, names));
+            halves.add(new QueryScope(middle, until, namePrefix, excludedPrefixes, names));
+            return halves;
+        }
+        if (names != null) {
+            if (names.size() < 2) {
+                return Collections.emptyList();
+            }
+            int middle = names.size() / 2;
+            return Arrays.asList(withNames(names.subList(0, middle)), withNames(names.subList(middle, names.size())));
+        }
+        // the scope of the remaining names has no prefixes left to partition by
+        if (!excludedPrefixes.isEmpty() || namePrefix.length() >= MAX_PREFIX_LENGTH) {
+            return Collections.emptyList();
+        }
+        List<QueryScope> partitions = new ArrayList<>(PARTITION_CHARACTERS.length() + 1);
+        List<String> partitionPrefixes = new ArrayList<>(PARTITION_CHARACTERS.length());
+        for (char c : PARTITION_CHARACTERS.toCharArray()) {
+            String partitionPrefix = namePrefix + c;
+            partitionPrefixes.add(partitionPrefix);
+            partitions.add(new QueryScope(since, until, partitionPrefix, Collections.emptyList(), null));
+        }
+        partitions.add(new QueryScope(since, until, namePrefix, partitionPrefixes, null));
+        return partitions;
+    }
+
+    private static boolean isStartOfDay(Instant instant) {
+        return instant.toEpochMilli() % DAY.toMillis() == 0;
+    }
+
+    private static LocalDate toDate(Instant instant) {
+        return instant.atZone(ZoneOffset.UTC).toLocalDate();
+    }
+}
@@ -0,0 +1,88 @@
+package com.disney.idea.client;
+
+import java.util.Date;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.apache.http.Header;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.utils.DateUtils;
+
+/**
+ * Decides whether a failed NerdGraph request is tried again and how long to wait before it is.
+ * Rate limited (429), timed out (408) and server error (5xx) responses are retried, as are I/O
+ * errors; any other response, in particular 401 and 403 for a bad API key, fails at once.
+ * The wait grows exponentially with each attempt and is randomized over its whole range so that
+ * concurrent requests do not retry in lockstep, unless the server sent a {@code Retry-After} header.
+ */
+public class RetryPolicy {
+
+    private static final int DEFAULT_MAX_ATTEMPTS = 4;
+    private static final long DEFAULT_BASE_DELAY_MS = 500;
+    private static final long DEFAULT_MAX_DELAY_MS = 30_000;
+
+    private final int maxAttempts;
+    private final long baseDelayMs;
+    private final long maxDelayMs;
+
+    public RetryPolicy() {
+        this(DEFAULT_MAX_ATTEMPTS, DEFAULT_BASE_DELAY_MS, DEFAULT_MAX_DELAY_MS);
+    }
+
+    /**
+     * @param maxAttempts the number of times a request is sent at most, 1 to never retry
+     * @param baseDelayMs the upper bound of the wait before the first retry, doubled for each later retry
+     * @param maxDelayMs  the longest wait before any retry, including one requested by {@code Retry-After}
+     */
+    public RetryPolicy(int maxAttempts, long baseDelayMs, long maxDelayMs) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.baseDelayMs = baseDelayMs;
+        this.maxDelayMs = maxDelayMs;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * @param statusCode the HTTP status of a response other than 200
+     * @return true if the same request may succeed when sent again
+     */
+    public boolean isRetryable(int statusCode) {
+        return statusCode == HttpStatus.SC_TOO_MANY_REQUESTS
+                || statusCode == HttpStatus.SC_REQUEST_TIMEOUT
+                || statusCode >= HttpStatus.SC_INTERNAL_SERVER_ERROR;
+    }
+
+    /**
+     * Returns how long to wait before sending a request again.
+     * @param attempt    the number of the attempt which just failed, starting at 1
+     * @param retryAfter the {@code Retry-After} header of the failed response, or null
+     * @return the delay in milliseconds
+     */
+    public long getDelayMs(int attempt, Header retryAfter) {
+        long requestedDelayMs = parseRetryAfter(retryAfter);
+        if (requestedDelayMs >= 0) {
+            return Math.min(requestedDelayMs, maxDelayMs);
+        }
+        long backoffMs = baseDelayMs << Math.min(attempt - 1, 30);
+        long boundMs = Math.min(backoffMs, maxDelayMs);
+        return boundMs <= 0 ? 0 : ThreadLocalRandom.current().nextLong(boundMs + 1);
+    }
+
+    /**
+     * Reads a {@code Retry-After} header given either in seconds or as an HTTP date.
+     * @return the requested delay in milliseconds, or -1 if there is none
+     */
+    private static long parseRetryAfter(Header retryAfter) {
+        if (retryAfter == null || retryAfter.getValue() == null) {
+            return -1;
+        }
+        String value = retryAfter.getValue().trim();
+        try {
+            return Math.max(0, Long.parseLong(value) * 1000);
+        } catch (NumberFormatException e) {
+            Date date = DateUtils.parseDate(value);
+            return date == null ? -1 : Math.max(0, date.getTime() - System.currentTimeMillis());
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.disney.idea.components;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.disney.idea.actions.RefreshAction;
+import com.intellij.ide.IdeEventQueue;
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.wm.ToolWindow;
+import com.intellij.openapi.wm.ToolWindowManager;
+import com.intellij.util.Alarm;
+
+/**
+ * Per-project component which refreshes the New Relic counts in the background every few minutes,
+ * as configured by the auto refresh preference. While the IDE is inactive or idle, or the Trace
+ * Metrics tool window is hidden, the refresh is skipped and the interval doubles up to
+ * {@link #MAX_BACKOFF_FACTOR} times the configured one; it drops back once a refresh runs again.
+ * A scheduled refresh is also skipped while another refresh of the project is still running, and
+ * when the project queries a range until a set date, whose counts no longer change. Otherwise the
+ * refresh takes the whole days of the window from the day cache and only queries its partial days.
+ * Referenced by fully qualified classname in plugin.xml which defines the plugin classes.
+ */
+public class AutoRefreshScheduler implements Disposable {
+
+    static final int MAX_BACKOFF_FACTOR = 8;
+    private static final String TOOL_WINDOW_ID = "Trace Metrics";
+
+    private final Project project;
+    private final ActivitySource activitySource;
+    private final Runnable refresher;
+    private final Alarm alarm;
+    private final AtomicInteger runningRefreshes = new AtomicInteger();
+    private long intervalMinutes;
+    private long delayMinutes;
+
+    /**
+     * Tells whether the user is looking at the counts; read on the UI thread.
+     */
+    interface ActivitySource {
+        boolean isIdeActive();
+
+        long getIdleMillis();
+
+        boolean isToolWindowVisible(Project project);
+    }
+
+    public AutoRefreshScheduler(Project project) {
+        this(project, new IdeActivitySource(), () -> RefreshAction.refresh(project));
+    }
+
+    AutoRefreshScheduler(Project project, ActivitySource activitySource, Runnable refresher) {
+        this.project = project;
+        this.activitySource = activitySource;
+        this.refresher = refresher;
+        // ticks run on the UI thread, where the tool window and idle state are read
+        this.alarm = new Alarm(Alarm.ThreadToUse.SWING_THREAD, this);
+        reschedule();
+    }
+
+    public static AutoRefreshScheduler getInstance(Project project) {
+        return project.getComponent(AutoRefreshScheduler.class);
+    }
+
+    /**
+     * Restarts the schedule from the auto refresh preference, turning it off if the preference is 0.
+     */
+    public void reschedule() {
+        alarm.cancelAllRequests();
+        intervalMinutes = Long.parseLong(ProjectPreferencesState.getInstance(project).getAutoRefreshMinutes());
+        delayMinutes = intervalMinutes;
+        if (intervalMinutes > 0) {
+            alarm.addRequest(this::tick, TimeUnit.MINUTES.toMillis(delayMinutes));
+        }
+    }
+
+    /**
+     * Called by every refresh of the project, scheduled or not, so that scheduled ones don't overlap them.
+     */
+    public void refreshStarted() {
+        runningRefreshes.incrementAndGet();
+    }
+
+    public void refreshFinished() {
+        runningRefreshes.decrementAndGet();
+    }
+
+    void tick() {
+        if (project.isDisposed()) {
+            return;
+        }
+        if (isInUse()) {
+            if (runningRefreshes.get() == 0 && hasIncompleteDay()) {
+                refresher.run();
+            }
+            delayMinutes = intervalMinutes;
+        } else {
+            delayMinutes = getBackoffDelay(delayMinutes, intervalMinutes);
+        }
+        alarm.addRequest(this::tick, TimeUnit.MINUTES.toMillis(delayMinutes));
+    }
+
+    /**
+     * The counts are only looked at while the IDE has focus, the user has been active within the
+     * last interval and the tool window is showing.
+     */
+    private boolean isInUse() {
+        return activitySource.isIdeActive()
+                && activitySource.getIdleMillis() <= TimeUnit.MINUTES.toMillis(intervalMinutes)
+                && activitySource.isToolWindowVisible(project);
+    }
+
+    /**
+     * An until date cannot be in the future, so a range until a set date only has past days.
+     * Only a window ending now still has a day in progress.
+     */
+    private boolean hasIncompleteDay() {
+        return StringUtils.isBlank(ProjectPreferencesState.getInstance(project).getUntilDateToQuery());
+    }
+
+    long getDelayMinutes() {
+        return delayMinutes;
+    }
+
+    static long getBackoffDelay(long delayMinutes, long intervalMinutes) {
+        return Math.min(delayMinutes * 2, intervalMinutes * MAX_BACKOFF_FACTOR);
+    }
+
+    @Override
+    public void dispose() {
+        // the alarm is disposed with this component
+    }
+
+    private static class IdeActivitySource implements ActivitySource {
+        @Override
+        public boolean isIdeActive() {
+            return ApplicationManager.getApplication().isActive();
+        }
+
+        @Override
+        public long getIdleMillis() {
+            return IdeEventQueue.getInstance().getIdleTime();
+        }
+
+        @Override
+        public boolean isToolWindowVisible(Project project) {
+            ToolWindow toolWindow = ToolWindowManager.getInstance(project).getToolWindow(TOOL_WINDOW_ID);
+            return toolWindow != null && toolWindow.isVisible();
+        }
+    }
+}
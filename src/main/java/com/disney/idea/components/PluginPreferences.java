@@ -21,8 +21,10 @@ public class PluginPreferences implements Configurable {
     private PreferencesPanel preferencesPanel;
     private ApplicationPreferencesState applicationPreferences;
     private ProjectPreferencesState projectPreferences;
+    private Project project;
 
     public PluginPreferences(Project project) {
+        this.project = project;
         applicationPreferences = ApplicationPreferencesState.getInstance();
         projectPreferences = ProjectPreferencesState.getInstance(project);
     }
@@ -56,6 +58,8 @@ public class PluginPreferences implements Configurable {
         projectPreferences.setNewRelicAppName(preferencesPanel.getNewRelicAppName());
         projectPreferences.setNumDaysToQuery(preferencesPanel.getNumDays());
         projectPreferences.setUntilDateToQuery(preferencesPanel.getUntilDate());
+        projectPreferences.setAutoRefreshMinutes(preferencesPanel.getAutoRefreshMinutes());
+        AutoRefreshScheduler.getInstance(project).reschedule();
         // Auto refresh after clicking Apply or OK.
         // Plug-ins may fetch an existing RefreshAction from the project or ActionManager but this didn't work.
         new RefreshAction().actionPerformed(new AnActionEvent(null, DataManager.getInstance().getDataContext(),
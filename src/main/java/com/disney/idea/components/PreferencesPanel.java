@@ -22,12 +22,14 @@ public class PreferencesPanel extends JPanel {
     private static String APP_NAME_LABEL = "Application Name: ";
     private static String DAYS_LABEL = "Days to Query: ";
     private static String UNTIL_DATE = "Until Date (YYYY-MM-DD): ";
+    private static String AUTO_REFRESH_LABEL = "Auto Refresh (minutes): ";
 
     private String savedAccountId;
     private String savedApiKey;
     private String savedAppName;
     private String savedNumDays;
     private String savedUntilDate;
+    private String savedAutoRefreshMinutes;
     private boolean isModified;
 
     private JBTextField accountIdField;
@@ -35,6 +37,7 @@ public class PreferencesPanel extends JPanel {
     private JBTextField appNameField;
     private JBTextField numDaysField;
     private JBTextField untilDateField;
+    private JBTextField autoRefreshField;
     private ApplicationPreferencesState applicationPreferences;
     private ProjectPreferencesState projectPreferences;
 
@@ -67,12 +70,16 @@ public class PreferencesPanel extends JPanel {
         untilDateField = new JBTextField(savedUntilDate);
         untilDateField.getDocument().addDocumentListener(getDocumentListener());
 
+        // create the auto refresh field
+        autoRefreshField = new JBTextField(savedAutoRefreshMinutes);
+        autoRefreshField.getDocument().addDocumentListener(getDocumentListener());
+
         // Reference: https://ptolemy.berkeley.edu/ptolemyII/ptII8.1/ptII/doc/whitepaper.pdf (see "Column and Row Specifications" section)
         // p = pref
         // dlu = dialog units
         FormLayout layout = new FormLayout(
                 "10dlu, left:pref, 3dlu, pref:grow, 3dlu, pref", // 6 columns
-                "p, 5dlu, p, 3dlu, p, 3dlu, p, 3dlu, p, 3dlu, p");      // 11 rows
+                "p, 5dlu, p, 3dlu, p, 3dlu, p, 3dlu, p, 3dlu, p, 3dlu, p");      // 13 rows
 
         //DefaultFormBuilder builder = new DefaultFormBuilder(layout, new FormDebugPanel()); // Useful for debugging layout
         PanelBuilder builder = new PanelBuilder(layout);
@@ -90,6 +97,9 @@ public class PreferencesPanel extends JPanel {
         builder.addLabel(UNTIL_DATE, cc.xy(2, 11));
         builder.add(untilDateField, cc.xyw(4, 11, 2));
         builder.addLabel("(Past dates only - uses today's date if blank)", cc.xy(6, 11));
+        builder.addLabel(AUTO_REFRESH_LABEL, cc.xy(2, 13));
+        builder.add(autoRefreshField, cc.xyw(4, 13, 2));
+        builder.addLabel("(0 turns auto refresh off)", cc.xy(6, 13));
 
         this.add(builder.build());
     }
@@ -114,6 +124,10 @@ public class PreferencesPanel extends JPanel {
         return untilDateField.getText().trim();
     }
 
+    public String getAutoRefreshMinutes() {
+        return autoRefreshField.getText().trim();
+    }
+
     public boolean isModified() {
         return isModified;
     }
@@ -142,6 +156,7 @@ public class PreferencesPanel extends JPanel {
         savedAppName = projectPreferences.getNewRelicAppName();
         savedNumDays = projectPreferences.getNumDaysToQuery();
         savedUntilDate = projectPreferences.getUntilDateToQuery();
+        savedAutoRefreshMinutes = projectPreferences.getAutoRefreshMinutes();
     }
 
     public void resetAllFields() {
@@ -151,6 +166,7 @@ public class PreferencesPanel extends JPanel {
         appNameField.setText(savedAppName);
         numDaysField.setText(savedNumDays);
         untilDateField.setText(savedUntilDate);
+        autoRefreshField.setText(savedAutoRefreshMinutes);
         isModified = false;
     }
 
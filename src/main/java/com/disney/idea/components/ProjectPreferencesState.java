@@ -33,8 +33,10 @@ public class ProjectPreferencesState implements PersistentStateComponent<Project
         private String newRelicAppName;
         private String numDaysToQuery;
         private String untilDateToQuery;
+        private String autoRefreshMinutes;
 
         private static final String DEFAULT_NUM_DAYS_TO_QUERY = "1";
+        private static final String DEFAULT_AUTO_REFRESH_MINUTES = "0";
 
         public String getNewRelicAppName() {
             return newRelicAppName == null ? "" : newRelicAppName;
@@ -72,6 +74,21 @@ public class ProjectPreferencesState implements PersistentStateComponent<Project
             }
         }
 
+        public String getAutoRefreshMinutes() {
+            return autoRefreshMinutes == null ? DEFAULT_AUTO_REFRESH_MINUTES : autoRefreshMinutes;
+        }
+
+        public void setAutoRefreshMinutes(String autoRefreshMinutes) {
+            try {
+                // Only set if positive or zero, zero turns auto refresh off
+                if (Integer.parseInt(autoRefreshMinutes) >= 0){
+                    this.autoRefreshMinutes = autoRefreshMinutes;
+                }
+            } catch (NumberFormatException e) {
+                // throw away value, it's not an int
+            }
+        }
+
         // A valid date is one that is valid and not in the future
         private boolean isValidDateEntry(String dateStr) {
             if (StringUtils.isNotBlank(dateStr) && dateStr != null) {
@@ -125,4 +142,12 @@ public class ProjectPreferencesState implements PersistentStateComponent<Project
         myState.setUntilDateToQuery(untilDateToQuery);
     }
 
+    public String getAutoRefreshMinutes() {
+        return myState.getAutoRefreshMinutes();
+    }
+
+    public void setAutoRefreshMinutes(String autoRefreshMinutes) {
+        myState.setAutoRefreshMinutes(autoRefreshMinutes);
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,32 @@
+package com.disney.idea.components;
+
+import org.apache.http.client.utils.HttpClientUtils;
+import org.apache.http.impl.client.CloseableHttpClient;
+
+import com.disney.idea.client.NewRelicClient;
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+
+/**
+ * Owns the single pooled HTTP client which the New Relic queries of all projects share, so that
+ * refreshes reuse kept-alive connections instead of opening new ones. The client is closed when
+ * the application or the plugin is unloaded.
+ * Referenced by fully qualified classname in plugin.xml which defines the plugin classes.
+ */
+public class SharedHttpClient implements Disposable {
+
+    private final CloseableHttpClient httpClient = NewRelicClient.createPooledHttpClient();
+
+    public static SharedHttpClient getInstance() {
+        return ApplicationManager.getApplication().getComponent(SharedHttpClient.class);
+    }
+
+    public CloseableHttpClient getHttpClient() {
+        return httpClient;
+    }
+
+    @Override
+    public void dispose() {
+        HttpClientUtils.closeQuietly(httpClient);
+    }
+}
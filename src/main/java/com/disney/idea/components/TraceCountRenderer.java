@@ -0,0 +1,28 @@
+package com.disney.idea.components;
+
+import java.text.DecimalFormat;
+
+import javax.swing.table.DefaultTableCellRenderer;
+
+/**
+ * Renders the Num Hits column of the Trace Metrics table, formatting the counts held as
+ * numbers in the {@link TraceTableModel} with a grouping separator, and showing '--'
+ * for rows without a count. Like all Swing renderers it is only used on the EDT, so the
+ * formatter is shared between cells.
+ */
+public class TraceCountRenderer extends DefaultTableCellRenderer {
+
+    private final DecimalFormat formatter = new DecimalFormat("#,###");
+
+    @Override
+    protected void setValue(Object value) {
+        setText(format(value));
+    }
+
+    String format(Object value) {
+        if (!(value instanceof Long) || (Long) value == TraceTableModel.NO_COUNT) {
+            return "--";
+        }
+        return formatter.format(value);
+    }
+}
@@ -6,10 +6,7 @@ import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.io.UnsupportedEncodingException;
 import java.net.URISyntaxException;
-import java.text.DecimalFormat;
-import java.text.ParseException;
 import java.util.ArrayList;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -22,17 +19,17 @@ import javax.swing.table.TableRowSorter;
 import com.disney.idea.utils.Trace;
 import com.disney.idea.utils.TraceLoader;
 import com.disney.idea.utils.Utils;
+import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.editor.CaretModel;
 import com.intellij.openapi.editor.Editor;
-import com.intellij.openapi.editor.LogicalPosition;
 import com.intellij.openapi.editor.ScrollType;
 import com.intellij.openapi.editor.ScrollingModel;
 import com.intellij.openapi.fileEditor.FileEditorManager;
 import com.intellij.openapi.progress.ProgressIndicator;
 import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.progress.Task;
-import com.intellij.openapi.project.DumbService;
 import com.intellij.openapi.project.Project;
+import com.intellij.psi.PsiAnnotation;
 import com.intellij.ui.table.JBTable;
 
 /**
@@ -44,6 +41,8 @@ import com.intellij.ui.table.JBTable;
  */
 public class TraceDataTable {
     private JTable curTable;
+    // set on the EDT once the traces are loaded, read by background refreshes
+    private volatile TraceTableModel curModel;
 
     public TraceDataTable(Project project){
         curTable = createTable(project);
@@ -57,9 +56,18 @@ public class TraceDataTable {
         return curTable;
     }
 
+    /**
+     * Returns the model of the table without touching Swing, so it can be called from any thread.
+     * @return the model showing the project's traces, or null if they have not been loaded yet
+     */
+    public TraceTableModel getModel() {
+        return curModel;
+    }
+
     private JTable createTable(Project project) {
         curTable = new JBTable();
         curTable.setFillsViewportHeight(true);
+        curTable.setDefaultRenderer(Long.class, new TraceCountRenderer()); // Num Hits
 
         // Set Selection Mode
         curTable.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
@@ -71,15 +79,20 @@ public class TraceDataTable {
         handleTableEvents(curTable, project);
 
         // Create the curTable with a list of metrics
+        TraceLoader traceLoader = new TraceLoader(project);
         ProgressManager.getInstance().run(new Task.Backgroundable(project, "Trace Metrics") {
             public void run(ProgressIndicator indicator) {
                 indicator.setText("Analyzing code for trace annotations");
                 indicator.pushState();
 
-                // parse the trace annotations and create the curTable
-                refreshTracesAsync(new TraceLoader(project), curTable, project);
+                // parse the trace annotations, then create the curTable model on the EDT
+                ArrayList<Trace> theTraces = traceLoader.load(indicator);
+                ApplicationManager.getApplication().invokeLater(() -> refreshTraces(theTraces, curTable), project.getDisposed());
             }
         });
+
+        // keep the rows current as files are edited, re-scanning only the changed files
+        new TraceFileWatcher(project, curTable, traceLoader).install();
         return curTable;
     }
 
@@ -114,17 +127,22 @@ public class TraceDataTable {
                 // only perform action if double-clicked
                 if (event.getClickCount() == 2) {
                     TraceTableModel model = (TraceTableModel) table.getModel();
-                    // open file in editor
                     int selectedRow = table.getSelectedRow();
                     int modelRow = table.convertRowIndexToModel(selectedRow);
                     Trace trace = model.getTrace(modelRow);
-                    FileEditorManager.getInstance(project).openFile(trace.getFile().getVirtualFile(), true);
+                    if (!trace.getFile().isValid()) {
+                        return;
+                    }
+
+                    // open file in editor
+                    FileEditorManager.getInstance(project).openFile(trace.getFile(), true);
 
-                    // put the cursor at the beginning of the line
+                    // put the cursor at the annotation, following any edits since the traces were loaded
+                    PsiAnnotation annotation = trace.getAnnotation();
+                    int offset = annotation != null ? annotation.getTextOffset() : trace.getOffset();
                     Editor editor = FileEditorManager.getInstance(project).getSelectedTextEditor();
                     CaretModel caretModel = editor.getCaretModel();
-                    String lineNumberString = table.getModel().getValueAt(modelRow, 3).toString(); // Line Number
-                    caretModel.moveToLogicalPosition(new LogicalPosition(Integer.valueOf(lineNumberString) - 1,4));
+                    caretModel.moveToOffset(Math.min(offset, editor.getDocument().getTextLength()));
 
                     // scroll to the line
                     ScrollingModel scrollingModel = editor.getScrollingModel();
@@ -145,59 +163,30 @@ public class TraceDataTable {
         });
     }
 
-    /**
-     * @param str The formatted number of hits from New Relic
-     */
-    private Long stringToLong(String str){
-        DecimalFormat df = new DecimalFormat("#,###");
-        long num1 = 0L;
-        try {
-            num1 = df.parse(str).longValue();
-        } catch (ParseException e) {
-            // Throw away if we cannot parse string
-        }
-        return num1;
-    }
-
     /**
      * Merges the trace counts from a New Relic metrics query with the list of named
      * trace points from the project source code to produce a new UI table model for view.
-     * @param traceLoader Provides a list of New Relic trace annotations from the project source
-     * @param table       The UI table element to be updated with a new table model
-     * @param project     a handle to the current project used for UI timing orchestration
+     * @param theTraces The New Relic trace annotations from the project source
+     * @param table     The UI table element to be updated with a new table model
      */
-    private void refreshTracesAsync(TraceLoader traceLoader, JTable table, Project project) {
-        DumbService.getInstance(project).runWhenSmart(() -> {
-            ArrayList<Trace> theTraces = traceLoader.load();
-
-            // Create and set up the table
-            TraceTableModel model = new TraceTableModel(theTraces);
-            Map<String, Long> traceCounts = new HashMap<>();
-            model.addTraceCounts(traceCounts);
-            table.setModel(model);
-
-            // Set up table Sorting
-            TableRowSorter<TableModel> sorter = new TableRowSorter<>(model);
-            List<RowSorter.SortKey> sortKeys = new ArrayList<>();
-            sortKeys.add(new RowSorter.SortKey(1, SortOrder.ASCENDING)); // Sort by Trace Name
-            // Num Hits
-            sorter.setComparator(2, (Comparator<String>) (s1, s2) -> {
-                if(!s1.equals("--") && !s2.equals("--")){
-                    return Long.compare(stringToLong(s1), stringToLong(s2));
-                }
-                if(s1.equals("--") && !s2.equals("--")){
-                    return -1;
-                }
-                if(!s1.equals("--") && s2.equals("--")){
-                    return 1;
-                }
-                return 0;
-            });
-            sorter.setSortKeys(sortKeys);
-            table.setRowSorter(sorter);
-
-            TableColumnModel tcm = table.getColumnModel();
-            tcm.removeColumn(tcm.getColumn(3)); // Line Number
-        });
+    private void refreshTraces(ArrayList<Trace> theTraces, JTable table) {
+        // Create and set up the table
+        TraceTableModel model = new TraceTableModel(theTraces);
+        Map<String, Long> traceCounts = new HashMap<>();
+        model.addTraceCounts(traceCounts);
+        table.setModel(model);
+        curModel = model;
+
+        // Set up table Sorting
+        TableRowSorter<TableModel> sorter = new TableRowSorter<>(model);
+        List<RowSorter.SortKey> sortKeys = new ArrayList<>();
+        sortKeys.add(new RowSorter.SortKey(1, SortOrder.ASCENDING)); // Sort by Trace Name
+        // Num Hits sorts numerically on the Long values, with rows without a count first
+        sorter.setSortKeys(sortKeys);
+        sorter.setSortsOnUpdates(true); // re-sort when query counts are applied to the rows
+        table.setRowSorter(sorter);
+
+        TableColumnModel tcm = table.getColumnModel();
+        tcm.removeColumn(tcm.getColumn(3)); // Line Number
     }
 }
@@ -0,0 +1,142 @@
+package com.disney.idea.components;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.swing.*;
+
+import org.jetbrains.annotations.NotNull;
+
+import com.disney.idea.utils.Trace;
+import com.disney.idea.utils.TraceLoader;
+import com.intellij.ide.highlighter.JavaFileType;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.fileTypes.FileTypeRegistry;
+import com.intellij.openapi.project.DumbService;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileManager;
+import com.intellij.openapi.vfs.newvfs.BulkFileListener;
+import com.intellij.openapi.vfs.newvfs.events.VFileEvent;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiManager;
+import com.intellij.psi.PsiTreeChangeAdapter;
+import com.intellij.psi.PsiTreeChangeEvent;
+import com.intellij.util.Alarm;
+
+/**
+ * Keeps the rows of a project's {@link TraceTableModel} current as source files change.
+ * PSI edits and VFS changes (e.g. a VCS update) only mark the touched files; after a short
+ * quiet period those files alone are scanned again and their rows are patched in place,
+ * rather than reloading the traces of the whole project.
+ */
+public class TraceFileWatcher extends PsiTreeChangeAdapter implements BulkFileListener {
+
+    private static final int RESCAN_DELAY_MS = 300;
+
+    private final Project project;
+    private final JTable table;
+    private final TraceLoader traceLoader;
+    private final Set<VirtualFile> changedFiles = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private final Alarm rescanAlarm;
+
+    public TraceFileWatcher(Project project, JTable table, TraceLoader traceLoader) {
+        this.project = project;
+        this.table = table;
+        this.traceLoader = traceLoader;
+        this.rescanAlarm = new Alarm(Alarm.ThreadToUse.POOLED_THREAD, project);
+    }
+
+    /**
+     * Starts listening for PSI and VFS changes until the project is closed.
+     */
+    public void install() {
+        PsiManager.getInstance(project).addPsiTreeChangeListener(this, project);
+        project.getMessageBus().connect(project).subscribe(VirtualFileManager.VFS_CHANGES, this);
+    }
+
+    @Override
+    public void childAdded(@NotNull PsiTreeChangeEvent event) {
+        psiChanged(event);
+    }
+
+    @Override
+    public void childRemoved(@NotNull PsiTreeChangeEvent event) {
+        psiChanged(event);
+    }
+
+    @Override
+    public void childReplaced(@NotNull PsiTreeChangeEvent event) {
+        psiChanged(event);
+    }
+
+    @Override
+    public void childrenChanged(@NotNull PsiTreeChangeEvent event) {
+        psiChanged(event);
+    }
+
+    @Override
+    public void childMoved(@NotNull PsiTreeChangeEvent event) {
+        psiChanged(event);
+    }
+
+    @Override
+    public void propertyChanged(@NotNull PsiTreeChangeEvent event) {
+        psiChanged(event);
+    }
+
+    @Override
+    public void after(@NotNull List<? extends VFileEvent> events) {
+        for (VFileEvent event : events) {
+            fileChanged(event.getFile());
+        }
+    }
+
+    private void psiChanged(PsiTreeChangeEvent event) {
+        PsiFile file = event.getFile();
+        if (file == null && event.getChild() instanceof PsiFile) {
+            // a whole file was added to or removed from a directory
+            file = (PsiFile) event.getChild();
+        }
+        if (file != null) {
+            fileChanged(file.getVirtualFile());
+        }
+    }
+
+    private void fileChanged(VirtualFile file) {
+        if (file == null || file.isDirectory() || !FileTypeRegistry.getInstance().isFileOfType(file, JavaFileType.INSTANCE)) {
+            return;
+        }
+        changedFiles.add(file);
+        rescanAlarm.cancelAllRequests();
+        rescanAlarm.addRequest(this::rescanChangedFiles, RESCAN_DELAY_MS);
+    }
+
+    private void rescanChangedFiles() {
+        List<VirtualFile> files = new ArrayList<>(changedFiles);
+        changedFiles.removeAll(files);
+        if (files.isEmpty() || project.isDisposed()) {
+            return;
+        }
+
+        Map<VirtualFile, List<Trace>> tracesByFile = DumbService.getInstance(project).runReadActionInSmartMode(() -> {
+            Map<VirtualFile, List<Trace>> traces = new LinkedHashMap<>();
+            for (VirtualFile file : files) {
+                traces.put(file, traceLoader.loadFile(file));
+            }
+            return traces;
+        });
+
+        ApplicationManager.getApplication().invokeLater(() -> {
+            // nothing to patch until the initial load has set the model
+            if (table.getModel() instanceof TraceTableModel) {
+                ((TraceTableModel) table.getModel()).updateTraces(tracesByFile);
+            }
+        }, project.getDisposed());
+    }
+}
@@ -1,29 +1,96 @@
 package com.disney.idea.components;
 
-import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import javax.swing.table.DefaultTableModel;
+import javax.swing.table.AbstractTableModel;
 
 import com.disney.idea.utils.Trace;
+import com.intellij.openapi.vfs.VirtualFile;
 
 /**
  * Model backing the Trace Metrics Swing UI table for a project.
+ * Rows are read straight from the list of traces and a parallel array of counts, which holds the
+ * boxed counts of the query result, so that the row sorter compares Num Hits without allocating;
+ * updates replace the counts or traces in bulk and fire a single table event.
  */
-public class TraceTableModel extends DefaultTableModel {
+public class TraceTableModel extends AbstractTableModel {
 
     static final String[] COLUMN_NAMES = {"File Name", "Trace Name", "Num Hits", "Code Line Number" /* Hidden */};
-    private final List<Trace> traces;
+    private static final Class<?>[] COLUMN_CLASSES = {String.class, String.class, Long.class, Integer.class};
+
+    /**
+     * Num Hits value of every row when the query failed or has not run; sorts below any real count.
+     */
+    public static final long NO_COUNT = -1L;
+    private static final Long NO_COUNT_VALUE = NO_COUNT;
+    private static final Long ZERO_COUNT_VALUE = 0L;
+
+    // replaced, never mutated, so background threads can join counts against a consistent list
+    private volatile List<Trace> traces;
+    private Long[] counts;
+    private Map<String, Long> traceCounts = Collections.emptyMap();
+
+    /**
+     * Immutable result of joining query counts with a list of traces, which can be computed on any
+     * thread and then applied to the model on the event dispatch thread.
+     */
+    public static final class CountsSnapshot {
+
+        private final List<Trace> traces;
+        private final Map<String, Long> traceCounts;
+        private final Long[] counts;
+
+        private CountsSnapshot(List<Trace> traces, Map<String, Long> traceCounts) {
+            this.traces = traces;
+            this.traceCounts = Collections.unmodifiableMap(new HashMap<>(traceCounts));
+            this.counts = getTraceCounts(traces, this.traceCounts);
+        }
+
+    }
 
     public TraceTableModel(List<Trace> traces) {
-        super(COLUMN_NAMES, traces.size());
         this.traces = traces;
-        for (int i = 0; i < traces.size(); i++) {
-            Trace trace = traces.get(i);
-            this.setValueAt(trace.getFile().getName(), i, 0); // File Name
-            this.setValueAt(trace.getMetricName(), i, 1); // Trace Name
-            this.setValueAt(trace.getLineNumber(), i, 3); // Line Number
+        this.counts = getTraceCounts(traces, traceCounts);
+    }
+
+    @Override
+    public int getRowCount() {
+        return traces.size();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMN_NAMES.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMN_NAMES[column];
+    }
+
+    @Override
+    public Class<?> getColumnClass(int column) {
+        return COLUMN_CLASSES[column];
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        Trace trace = traces.get(row);
+        switch (column) {
+            case 0:
+                return trace.getFileName(); // File Name
+            case 1:
+                return trace.getMetricName(); // Trace Name
+            case 2:
+                return counts[row]; // Num Hits
+            case 3:
+                return trace.getLineNumber(); // Line Number
+            default:
+                throw new IndexOutOfBoundsException("No column " + column);
         }
     }
 
@@ -37,31 +104,81 @@ public class TraceTableModel extends DefaultTableModel {
     }
 
     /**
-     * Populate the third column of the data table. If the query failed, the column will be populated with '--'s.
+     * Returns the traces currently shown by the table. The list is never modified once it backs the
+     * model, so it may be read from any thread.
+     * @return the traces in model row order
+     */
+    public List<Trace> getTraces() {
+        return traces;
+    }
+
+    /**
+     * Joins the counts of a New Relic query with the given traces without touching the model.
+     * Safe to call from a background thread.
+     * @param traces      the traces to join, usually from {@link #getTraces()}
+     * @param traceCounts Result from NR query
+     * @return a snapshot to hand to {@link #applyCounts(CountsSnapshot)} on the event dispatch thread
+     */
+    public static CountsSnapshot joinCounts(List<Trace> traces, Map<String, Long> traceCounts) {
+        return new CountsSnapshot(traces, traceCounts);
+    }
+
+    /**
+     * Populate the third column of the data table with the count of each trace. If the query failed,
+     * the column will be populated with {@link #NO_COUNT}, which is rendered as '--'.
      * @param traceCounts Result from NR query
      */
     public void addTraceCounts(Map<String, Long> traceCounts) {
-        boolean queryResultIsEmpty = traceCounts.isEmpty();
-        int nRow = this.getRowCount();
-        for (int i = 0; i < nRow; i++) {
-            String traceCountString;
-            if (queryResultIsEmpty) {
-                traceCountString = "--";
-            } else {
-                String traceName = (String) this.getValueAt(i, 1); // Trace Name
-                traceCountString = getFormattedTraceCountString(traceCounts, traceName);
+        applyCounts(joinCounts(traces, traceCounts));
+    }
+
+    /**
+     * Swaps in the counts of a snapshot and fires a single update event for all rows, which keeps
+     * the current sort and selection. If the traces changed since the snapshot was taken, its counts
+     * are joined again with the current rows.
+     * @param snapshot the joined counts from {@link #joinCounts(List, Map)}
+     */
+    public void applyCounts(CountsSnapshot snapshot) {
+        this.traceCounts = snapshot.traceCounts;
+        this.counts = snapshot.traces == traces ? snapshot.counts : getTraceCounts(traces, snapshot.traceCounts);
+        if (!traces.isEmpty()) {
+            fireTableRowsUpdated(0, traces.size() - 1);
+        }
+    }
+
+    /**
+     * Replaces the rows of each given file with rows for its current traces, keeping the counts
+     * of the last query, and drops the rows of files which no longer exist.
+     * @param tracesByFile the freshly scanned traces of each changed file, empty if it has none
+     */
+    public void updateTraces(Map<VirtualFile, List<Trace>> tracesByFile) {
+        List<Trace> updatedTraces = new ArrayList<>(traces.size());
+        for (Trace trace : traces) {
+            VirtualFile file = trace.getFile();
+            if (file != null && file.isValid() && !tracesByFile.containsKey(file)) {
+                updatedTraces.add(trace);
             }
-            this.setValueAt(traceCountString, i, 2); // Num Hits
         }
+        for (List<Trace> fileTraces : tracesByFile.values()) {
+            updatedTraces.addAll(fileTraces);
+        }
+        this.counts = getTraceCounts(updatedTraces, traceCounts);
+        this.traces = updatedTraces;
+        fireTableDataChanged();
     }
 
-    private static String getFormattedTraceCountString(Map<String, Long> traceCounts, String traceName) {
-        Long traceCount = traceCounts.get(traceName);
-        if (traceCount == null) {
-            traceCount = 0L;
+    private static Long[] getTraceCounts(List<Trace> traces, Map<String, Long> traceCounts) {
+        Long[] counts = new Long[traces.size()];
+        for (int i = 0; i < counts.length; i++) {
+            if (traceCounts.isEmpty()) {
+                counts[i] = NO_COUNT_VALUE;
+            } else {
+                // reuses the Long of the query result instead of boxing again on every getValueAt
+                Long traceCount = traceCounts.get(traces.get(i).getMetricName());
+                counts[i] = traceCount == null ? ZERO_COUNT_VALUE : traceCount;
+            }
         }
-        DecimalFormat formatter = new DecimalFormat("#,###");
-        return formatter.format(traceCount);
+        return counts;
     }
 
 }
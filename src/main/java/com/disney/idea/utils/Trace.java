@@ -1,43 +1,71 @@
 package com.disney.idea.utils;
 
-import com.intellij.openapi.util.TextRange;
+import com.intellij.openapi.editor.Document;
 import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.psi.PsiAnnotation;
+import com.intellij.psi.PsiDocumentManager;
 import com.intellij.psi.PsiFile;
 import com.intellij.psi.PsiNameValuePair;
+import com.intellij.psi.SmartPointerManager;
+import com.intellij.psi.SmartPsiElementPointer;
 
 /**
  * Represents a source-code annotation where New Relic will record metrics
  * for code execution through that trace point. Trace Metrics requires that
  * the trace annotation contains an explicit metric name in order to be used
  * for UI navigation and metric reporting.
+ *
+ * Only a compact description of the annotation is kept, so that the table does
+ * not pin PSI trees in memory; the annotation itself is reachable through a smart
+ * pointer, which follows it across edits and is resolved on navigation.
  */
 public class Trace {
 
     private static final String METRIC_NAME = "metricName";
 
     private final String metricName;
-    private final TextRange textRange;
-    private final PsiFile file;
+    private final VirtualFile file;
+    private final int offset;
     private final int lineNumber;
+    private final SmartPsiElementPointer<PsiAnnotation> annotationPointer;
 
-    public Trace(String metricName, TextRange textRange, PsiFile file, int lineNumber) {
-        this.metricName = metricName;
-        this.textRange = textRange;
+    public Trace(String metricName, VirtualFile file, int offset, int lineNumber, SmartPsiElementPointer<PsiAnnotation> annotationPointer) {
+        this.metricName = metricName.intern();
         this.file = file;
+        this.offset = offset;
         this.lineNumber = lineNumber;
+        this.annotationPointer = annotationPointer;
     }
 
     public static Trace fromPsiAnnotation(PsiAnnotation annotation) {
         String metricName = getMetricName(annotation);
         if (metricName != null) {
             PsiFile file = annotation.getContainingFile();
-            final int lineNumber = StringUtil.offsetToLineNumber(file.getText(), annotation.getTextOffset()) + 1;
-            return new Trace(metricName, annotation.getTextRange(), file, lineNumber);
+            final int offset = annotation.getTextOffset();
+            final int lineNumber = getLineNumber(file, offset) + 1;
+            SmartPsiElementPointer<PsiAnnotation> annotationPointer =
+                    SmartPointerManager.getInstance(file.getProject()).createSmartPsiElementPointer(annotation, file);
+            return new Trace(metricName, file.getVirtualFile(), offset, lineNumber, annotationPointer);
         }
         return null;
     }
 
+    /**
+     * Looks up the zero-based line of an offset in the file's document when one is already loaded,
+     * which keeps a table of line start offsets shared by all annotations of the file. Otherwise the
+     * line breaks before the offset are counted in the PSI text, so that a scan of the project does
+     * not create and keep a document for every file holding a trace.
+     */
+    private static int getLineNumber(PsiFile file, int offset) {
+        PsiDocumentManager documentManager = PsiDocumentManager.getInstance(file.getProject());
+        Document document = documentManager.getCachedDocument(file);
+        if (document != null && !documentManager.isUncommited(document) && offset <= document.getTextLength()) {
+            return document.getLineNumber(offset);
+        }
+        return StringUtil.offsetToLineNumber(file.getViewProvider().getContents(), offset);
+    }
+
     public static String getMetricName(PsiAnnotation annotation) {
         PsiNameValuePair[] attributes = annotation.getParameterList().getAttributes();
         for (PsiNameValuePair p : attributes) {
@@ -48,12 +76,28 @@ public class Trace {
         return null;
     }
 
-    public PsiFile getFile() {
+    public VirtualFile getFile() {
         return file;
     }
 
-    public TextRange getTextRange() {
-        return textRange;
+    public String getFileName() {
+        return file.getName();
+    }
+
+    /**
+     * @return the offset of the annotation in its file when it was loaded
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * Resolves the annotation, following any edits made to its file since it was loaded.
+     * Must be called within a read action.
+     * @return the annotation, or null if it no longer exists
+     */
+    public PsiAnnotation getAnnotation() {
+        return annotationPointer == null ? null : annotationPointer.getElement();
     }
 
     public String getMetricName() {
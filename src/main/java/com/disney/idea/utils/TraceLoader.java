@@ -1,14 +1,41 @@
 package com.disney.idea.utils;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
+import com.google.common.collect.Lists;
+import com.intellij.concurrency.JobLauncher;
+import com.intellij.ide.highlighter.JavaFileType;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.fileTypes.FileTypeRegistry;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.project.DumbService;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.roots.ProjectFileIndex;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.JavaPsiFacade;
 import com.intellij.psi.PsiAnnotation;
+import com.intellij.psi.PsiClass;
 import com.intellij.psi.PsiElement;
 import com.intellij.psi.PsiFile;
 import com.intellij.psi.PsiManager;
+import com.intellij.psi.PsiMethod;
 import com.intellij.psi.PsiRecursiveElementWalkingVisitor;
+import com.intellij.psi.SmartPointerManager;
+import com.intellij.psi.SmartPsiElementPointer;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.psi.search.searches.AnnotatedElementsSearch;
 
 /**
  * Gathers references to New Relic trace annotations by inspecting the source
@@ -18,6 +45,9 @@ import com.intellij.psi.PsiRecursiveElementWalkingVisitor;
  */
 public class TraceLoader {
     private static final String FILE_TYPE_JAVA = "JAVA";
+    private static final String METRIC_NAME_ATTRIBUTE = "metricName";
+    private static final int PARTITIONS_PER_CORE = 4;
+    private static final byte[] METRIC_NAME_BYTES = METRIC_NAME_ATTRIBUTE.getBytes(StandardCharsets.US_ASCII);
 
     private Project project;
 
@@ -25,19 +55,210 @@ public class TraceLoader {
         this.project = project;
     }
 
+    /**
+     * Finds the named trace annotations in the project content, reporting to the progress indicator
+     * of the current thread, if any. See {@link #load(ProgressIndicator)}.
+     * @return the traces found in the project
+     */
     public ArrayList<Trace> load() {
+        return load(ProgressManager.getInstance().getProgressIndicator());
+    }
+
+    /**
+     * Finds the named trace annotations in the project content. When the New Relic agent API is
+     * on the project classpath, the annotated methods are looked up through the persistent Java
+     * stub index and their traces are built file by file in separate read actions, so a large
+     * project does not hold off writes for the whole search; otherwise the Java files of the
+     * project are partitioned and walked concurrently on the platform's worker pool. Waits for
+     * smart mode and takes its own read actions, so it should be called from a background thread.
+     * @param indicator the progress indicator to report to and to check for cancellation, may be null
+     * @return the traces found in the project
+     */
+    public ArrayList<Trace> load(ProgressIndicator indicator) {
+        DumbService dumbService = DumbService.getInstance(project);
+        Map<VirtualFile, List<SmartPsiElementPointer<PsiMethod>>> methodsByFile = dumbService.runReadActionInSmartMode(() -> {
+            PsiClass traceAnnotationClass = findTraceAnnotationClass();
+            return traceAnnotationClass == null ? null : findAnnotatedMethods(traceAnnotationClass);
+        });
+        if (methodsByFile == null) {
+            return scanContent(indicator);
+        }
+
+        ArrayList<Trace> traces = new ArrayList<>();
+        for (List<SmartPsiElementPointer<PsiMethod>> methods : methodsByFile.values()) {
+            ProgressManager.checkCanceled();
+            dumbService.runReadActionInSmartMode(() -> {
+                for (SmartPsiElementPointer<PsiMethod> pointer : methods) {
+                    PsiMethod method = pointer.getElement();
+                    if (method != null) {
+                        addTrace(method, traces);
+                    }
+                }
+            });
+        }
+        return traces;
+    }
+
+    private ArrayList<Trace> scanContent(ProgressIndicator indicator) {
+        List<VirtualFile> javaFiles = ReadAction.compute(() -> {
+            List<VirtualFile> files = new ArrayList<>();
+            ProjectFileIndex.SERVICE.getInstance(project).iterateContent(fileInProject -> {
+                if (isJavaFile(fileInProject)) {
+                    files.add(fileInProject);
+                }
+                return true;
+            });
+            return files;
+        });
+        if (javaFiles.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        // several partitions per core so that workers finishing early can pick up more
+        int partitionSize = Math.max(1, javaFiles.size() / (Runtime.getRuntime().availableProcessors() * PARTITIONS_PER_CORE));
+        List<List<VirtualFile>> partitions = Lists.partition(javaFiles, partitionSize);
+        AtomicReferenceArray<List<Trace>> tracesByPartition = new AtomicReferenceArray<>(partitions.size());
+        AtomicInteger scannedFiles = new AtomicInteger();
+        List<Integer> partitionIndexes = new ArrayList<>(partitions.size());
+        for (int i = 0; i < partitions.size(); i++) {
+            partitionIndexes.add(i);
+        }
+
+        if (indicator != null) {
+            indicator.setIndeterminate(false);
+        }
+        boolean completed = JobLauncher.getInstance().invokeConcurrentlyUnderProgress(partitionIndexes, indicator, index -> {
+            ArrayList<Trace> partitionTraces = new ArrayList<>();
+            for (VirtualFile fileInProject : partitions.get(index)) {
+                ProgressManager.checkCanceled();
+                ReadAction.run(() -> scanFile(fileInProject, partitionTraces));
+                if (indicator != null) {
+                    indicator.setFraction((double) scannedFiles.incrementAndGet() / javaFiles.size());
+                }
+            }
+            tracesByPartition.set(index, partitionTraces);
+            return true;
+        });
+        if (!completed) {
+            throw new ProcessCanceledException();
+        }
+
+        ArrayList<Trace> traces = new ArrayList<>();
+        for (int i = 0; i < tracesByPartition.length(); i++) {
+            traces.addAll(tracesByPartition.get(i));
+        }
+        return traces;
+    }
+
+    private void scanFile(VirtualFile fileInProject, ArrayList<Trace> traces) {
+        if (!fileInProject.isValid() || !mayContainNamedTrace(fileInProject)) {
+            return;
+        }
+        PsiFile file = PsiManager.getInstance(project).findFile(fileInProject);
+        if (file != null && FILE_TYPE_JAVA.equals(file.getFileType().getName())) {
+            processFile(file, traces);
+        }
+    }
+
+    /**
+     * Scans a single file of the project for trace annotations. Must be called within a read action.
+     * @param fileInProject the file to scan
+     * @return the traces in the file, or an empty list if the file no longer exists, is not a
+     *         Java file or is not part of the project content
+     */
+    public List<Trace> loadFile(VirtualFile fileInProject) {
         ArrayList<Trace> traces = new ArrayList<>();
-        ProjectFileIndex.SERVICE.getInstance(project).iterateContent(fileInProject -> {
-            PsiFile file = PsiManager.getInstance(project).findFile(fileInProject);
-            if (file != null && FILE_TYPE_JAVA.equals(file.getFileType().getName())) {
-                processFile(file, traces);
+        if (!fileInProject.isValid() || !ProjectFileIndex.SERVICE.getInstance(project).isInContent(fileInProject)) {
+            return traces;
+        }
+        PsiClass traceAnnotationClass = findTraceAnnotationClass();
+        if (traceAnnotationClass != null) {
+            return searchTraces(traceAnnotationClass, GlobalSearchScope.fileScope(project, fileInProject));
+        }
+        scanFile(fileInProject, traces);
+        return traces;
+    }
+
+    /**
+     * Cheap check whether a file could hold a named trace annotation, made before building its PSI:
+     * it must be a Java file whose text contains the {@code metricName} attribute. Unsaved changes
+     * are searched in the open document, anything else in the raw file bytes.
+     */
+    private static boolean mayContainNamedTrace(VirtualFile file) {
+        if (!isJavaFile(file)) {
+            return false;
+        }
+        Document document = FileDocumentManager.getInstance().getCachedDocument(file);
+        if (document != null) {
+            return StringUtil.contains(document.getImmutableCharSequence(), METRIC_NAME_ATTRIBUTE);
+        }
+        try {
+            return indexOf(file.contentsToByteArray(), METRIC_NAME_BYTES) >= 0;
+        } catch (IOException e) {
+            // let the PSI decide
+            return true;
+        }
+    }
+
+    private static boolean isJavaFile(VirtualFile file) {
+        return !file.isDirectory() && FileTypeRegistry.getInstance().isFileOfType(file, JavaFileType.INSTANCE);
+    }
+
+    private static int indexOf(byte[] content, byte[] pattern) {
+        int last = content.length - pattern.length;
+        outer:
+        for (int i = 0; i <= last; i++) {
+            if (content[i] != pattern[0]) {
+                continue;
+            }
+            for (int j = 1; j < pattern.length; j++) {
+                if (content[i + j] != pattern[j]) {
+                    continue outer;
+                }
             }
+            return i;
+        }
+        return -1;
+    }
+
+    private PsiClass findTraceAnnotationClass() {
+        return JavaPsiFacade.getInstance(project).findClass(Utils.TRACE_QUALIFIED_NAME, GlobalSearchScope.allScope(project));
+    }
+
+    /**
+     * Looks up the methods carrying the trace annotation, grouped by the file they are in.
+     * Must be called within a read action.
+     */
+    private Map<VirtualFile, List<SmartPsiElementPointer<PsiMethod>>> findAnnotatedMethods(PsiClass traceAnnotationClass) {
+        Map<VirtualFile, List<SmartPsiElementPointer<PsiMethod>>> methodsByFile = new LinkedHashMap<>();
+        SmartPointerManager pointerManager = SmartPointerManager.getInstance(project);
+        AnnotatedElementsSearch.searchPsiMethods(traceAnnotationClass, GlobalSearchScope.projectScope(project)).forEach(method -> {
+            VirtualFile file = method.getContainingFile().getVirtualFile();
+            methodsByFile.computeIfAbsent(file, key -> new ArrayList<>()).add(pointerManager.createSmartPsiElementPointer(method));
             return true;
         });
+        return methodsByFile;
+    }
 
+    private ArrayList<Trace> searchTraces(PsiClass traceAnnotationClass, GlobalSearchScope scope) {
+        ArrayList<Trace> traces = new ArrayList<>();
+        AnnotatedElementsSearch.searchPsiMethods(traceAnnotationClass, scope).forEach(method -> {
+            addTrace(method, traces);
+            return true;
+        });
         return traces;
     }
 
+    private static void addTrace(PsiMethod method, List<Trace> traces) {
+        PsiAnnotation annotation = method.getModifierList().findAnnotation(Utils.TRACE_QUALIFIED_NAME);
+        if (annotation != null) {
+            Trace trace = Trace.fromPsiAnnotation(annotation);
+            if (trace != null) {
+                traces.add(trace);
+            }
+        }
+    }
+
     private void processFile(PsiFile file, ArrayList<Trace> traces) {
         file.accept(new PsiRecursiveElementWalkingVisitor() {
             @Override
@@ -7,6 +7,8 @@ import java.io.UnsupportedEncodingException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URLEncoder;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.LocalDate;
 import java.util.Map;
 
@@ -18,8 +20,11 @@ import org.apache.commons.lang3.StringUtils;
 import com.disney.idea.client.NewRelicClient;
 import com.disney.idea.components.ApplicationPreferencesState;
 import com.disney.idea.components.ProjectPreferencesState;
+import com.disney.idea.components.TraceDataTable;
 import com.disney.idea.components.TraceTableModel;
 import com.intellij.ide.DataManager;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.PathManager;
 import com.intellij.openapi.actionSystem.DataContext;
 import com.intellij.openapi.actionSystem.PlatformDataKeys;
 import com.intellij.openapi.project.Project;
@@ -33,7 +38,7 @@ import com.intellij.psi.util.PsiTreeUtil;
  */
 public class Utils {
 
-    private static final String TRACE_QUALIFIED_NAME = "com.newrelic.api.agent.Trace";
+    static final String TRACE_QUALIFIED_NAME = "com.newrelic.api.agent.Trace";
 
     /**
      * Convenience method which looks up the IntelliJ Project object corresponding to
@@ -71,21 +76,49 @@ public class Utils {
     }
 
     /**
-     * Returns a reference to the underlying data model underlying the JTable component
-     * in current UI focus, used for updating the content.
-     * @return the runtimeTableModel underlying the metrics display table for the project in UI focus
+     * Returns a reference to the data model underlying the Trace Metrics table of the project,
+     * used for updating the content. It is held by the project's {@link TraceDataTable} rather than
+     * read from the Swing component tree, so it can be called from background threads.
+     * @return the model underlying the metrics display table, or null if the traces have not been loaded yet
      */
     public static TraceTableModel getTableModel(Project project) {
-        JTable table = getTable(project);
-        return table == null ? null : (TraceTableModel) table.getModel();
+        if (project == null || project.isDisposed()) {
+            return null;
+        }
+        TraceDataTable dataTable = TraceDataTable.getInstance(project);
+        return dataTable == null ? null : dataTable.getModel();
     }
 
+    /**
+     * Joins the counts of a New Relic query with the traces of the project's table on the calling
+     * thread, then applies the result to the table model with a single update on the event dispatch
+     * thread so the table keeps its sort and selection.
+     * @param project     the IntelliJ project whose table is updated
+     * @param traceCounts Result from NR query
+     */
     public static void refreshCounts(Project project, Map<String, Long> traceCounts) {
         TraceTableModel model = Utils.getTableModel(project);
-        if (model != null) {
-            model.addTraceCounts(traceCounts);
-            Utils.getTable(project).setModel(model);
+        if (model == null) {
+            return;
         }
+        TraceTableModel.CountsSnapshot snapshot = TraceTableModel.joinCounts(model.getTraces(), traceCounts);
+        ApplicationManager.getApplication().invokeLater(() -> {
+            // the table may have been given a new model while the counts were joined
+            TraceTableModel current = Utils.getTableModel(project);
+            if (current != null) {
+                current.applyCounts(snapshot);
+            }
+        }, project.getDisposed());
+    }
+
+    /**
+     * Returns the directory in the IDE system directory where per-day trace counts are cached
+     * for the given project.
+     * @param project the IntelliJ project the counts are queried for
+     * @return the cache directory, which may not exist yet
+     */
+    public static Path getCountsCacheDirectory(Project project) {
+        return Paths.get(PathManager.getSystemPath(), "trace-metrics", project.getLocationHash(), "counts");
     }
 
     /**
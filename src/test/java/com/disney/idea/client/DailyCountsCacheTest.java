@@ -0,0 +1,99 @@
+package com.disney.idea.client;
+
+import java.io.File;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DailyCountsCacheTest {
+
+    private static final String ACCOUNT_ID = "account-id";
+    private static final String APP_NAME = "app-name";
+    private static final LocalDate DAY = LocalDate.parse("2020-11-02");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void get_returnsStoredCounts() {
+        DailyCountsCache cache = new DailyCountsCache(folder.getRoot().toPath());
+        Map<String, Long> counts = new HashMap<>();
+        counts.put("this", 5L);
+        counts.put("that", 12345678901L);
+
+        Assert.assertNull(cache.get(ACCOUNT_ID, APP_NAME, DAY));
+        cache.put(ACCOUNT_ID, APP_NAME, DAY, counts);
+
+        Assert.assertEquals(counts, cache.get(ACCOUNT_ID, APP_NAME, DAY));
+        Assert.assertEquals(counts, new DailyCountsCache(folder.getRoot().toPath()).get(ACCOUNT_ID, APP_NAME, DAY));
+    }
+
+    @Test
+    public void get_isKeyedByAccountAppAndDay() {
+        DailyCountsCache cache = new DailyCountsCache(folder.getRoot().toPath());
+        cache.put(ACCOUNT_ID, APP_NAME, DAY, new HashMap<>());
+
+        Assert.assertEquals(new HashMap<>(), cache.get(ACCOUNT_ID, APP_NAME, DAY));
+        Assert.assertNull(cache.get("other-account", APP_NAME, DAY));
+        Assert.assertNull(cache.get(ACCOUNT_ID, "other-app", DAY));
+        Assert.assertNull(cache.get(ACCOUNT_ID, APP_NAME, DAY.minusDays(1)));
+    }
+
+    @Test
+    public void get_keepsAppsWithCollidingHashCodesApart() {
+        DailyCountsCache cache = new DailyCountsCache(folder.getRoot().toPath());
+        // "Aa" and "BB" have the same String hash code
+        cache.put(ACCOUNT_ID, "Aa", DAY, Collections.singletonMap("this", 1L));
+        cache.put(ACCOUNT_ID, "BB", DAY, Collections.singletonMap("this", 2L));
+
+        Assert.assertEquals(Collections.singletonMap("this", 1L), cache.get(ACCOUNT_ID, "Aa", DAY));
+        Assert.assertEquals(Collections.singletonMap("this", 2L), cache.get(ACCOUNT_ID, "BB", DAY));
+    }
+
+    @Test
+    public void getNamed_mergesNamesOfEachList() {
+        DailyCountsCache cache = new DailyCountsCache(folder.getRoot().toPath());
+        Map<String, Long> counts = new HashMap<>();
+        counts.put("this", 5L);
+        cache.putNamed(ACCOUNT_ID, APP_NAME, DAY, Arrays.asList("this", "idle"), counts);
+        cache.putNamed(ACCOUNT_ID, APP_NAME, DAY, Collections.singletonList("that"), Collections.singletonMap("that", 7L));
+
+        Map<String, Long> expected = new HashMap<>();
+        expected.put("this", 5L);
+        expected.put("idle", 0L);
+        expected.put("that", 7L);
+        Assert.assertEquals(expected, cache.getNamed(ACCOUNT_ID, APP_NAME, DAY));
+        // the named counts are kept apart from those of all transactions
+        Assert.assertNull(cache.get(ACCOUNT_ID, APP_NAME, DAY));
+        Assert.assertNull(cache.getNamed(ACCOUNT_ID, "other-app", DAY));
+    }
+
+    @Test
+    public void put_evictsLeastRecentlyUsedDaysBeyondMaxSize() {
+        Map<String, Long> counts = new HashMap<>();
+        for (int i = 0; i < 20; i++) {
+            counts.put("metric-" + i, (long) i);
+        }
+        DailyCountsCache cache = new DailyCountsCache(folder.getRoot().toPath(), 2000);
+        for (int i = 0; i < 10; i++) {
+            cache.put(ACCOUNT_ID, APP_NAME, DAY.minusDays(i), counts);
+            File[] files = folder.getRoot().listFiles();
+            Assert.assertNotNull(files);
+            long totalSize = 0;
+            for (File file : files) {
+                totalSize += file.length();
+            }
+            Assert.assertTrue("cache should stay within its maximum size", totalSize <= 2000);
+        }
+
+        Assert.assertEquals(counts, cache.get(ACCOUNT_ID, APP_NAME, DAY.minusDays(9)));
+        Assert.assertNull(cache.get(ACCOUNT_ID, APP_NAME, DAY));
+    }
+}
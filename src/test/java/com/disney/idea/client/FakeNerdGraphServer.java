@@ -0,0 +1,235 @@
+package com.disney.idea.client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Stands in for the NerdGraph endpoint on a local port, so that the client can be exercised over
+ * real connections without network access. Every aliased {@code nrql} field of a request gets the
+ * same results: a count of 1 for each of the names {@code metric-0} up to the configured number of
+ * facets. A date range query therefore counts each name once per queried day.
+ * The latency, the concurrency requests are held for, the share of failed and throttled requests and the payload size can be configured.
+ */
+public class FakeNerdGraphServer implements AutoCloseable {
+
+    private static final Pattern ALIAS_PATTERN = Pattern.compile("(d\\d+): nrql\\(");
+
+    private final String apiKey;
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final Random random = new Random(42);
+
+    private volatile long latencyMs;
+    private volatile double errorRate;
+    private volatile double throttleRate;
+    private volatile int numFacets = 10;
+    private volatile int paddingBytes;
+    private volatile CountDownLatch concurrentRequests = new CountDownLatch(0);
+
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger failedRequests = new AtomicInteger();
+    private final AtomicInteger throttledRequests = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    private final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Starts the server on a free port of the loopback address.
+     * @param apiKey the API key requests must send, others are refused with 401
+     */
+    public FakeNerdGraphServer(String apiKey) throws IOException {
+        this.apiKey = apiKey;
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/graphql", this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    public String getUrl() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/graphql";
+    }
+
+    /**
+     * Sets how long the server takes to answer each request.
+     */
+    public void setLatencyMs(long latencyMs) {
+        this.latencyMs = latencyMs;
+    }
+
+    /**
+     * Sets the share of requests, from 0 to 1, which fail with a 500 response.
+     */
+    public void setErrorRate(double errorRate) {
+        this.errorRate = errorRate;
+    }
+
+    /**
+     * Sets the share of requests, from 0 to 1, which are refused with a 429 response asking to retry at once.
+     */
+    public void setThrottleRate(double throttleRate) {
+        this.throttleRate = throttleRate;
+    }
+
+    /**
+     * Sets the number of names in the results of each query.
+     */
+    public void setNumFacets(int numFacets) {
+        this.numFacets = numFacets;
+    }
+
+    /**
+     * Pads each response with about this many bytes of extensions, which the client has to read past.
+     */
+    public void setPaddingBytes(int paddingBytes) {
+        this.paddingBytes = paddingBytes;
+    }
+
+    /**
+     * Holds the first requests until this many of them are being answered at the same time, so that
+     * a client sending fewer requests at once stalls, up to 5 seconds, instead of being answered.
+     */
+    public void setConcurrentRequests(int count) {
+        this.concurrentRequests = new CountDownLatch(count);
+    }
+
+    public int getRequests() {
+        return requests.get();
+    }
+
+    public int getFailedRequests() {
+        return failedRequests.get();
+    }
+
+    public int getThrottledRequests() {
+        return throttledRequests.get();
+    }
+
+    /**
+     * @return the most requests which were being answered at the same time
+     */
+    public int getMaxInFlight() {
+        return maxInFlight.get();
+    }
+
+    /**
+     * @return the number of connections the requests came in on
+     */
+    public int getConnections() {
+        return clientPorts.size();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        int current = inFlight.incrementAndGet();
+        maxInFlight.accumulateAndGet(current, Math::max);
+        try {
+            requests.incrementAndGet();
+            clientPorts.add(exchange.getRemoteAddress().getPort());
+            String body = readBody(exchange.getRequestBody());
+            concurrentRequests.countDown();
+            concurrentRequests.await(5, TimeUnit.SECONDS);
+            if (latencyMs > 0) {
+                Thread.sleep(latencyMs);
+            }
+
+            if (!apiKey.equals(exchange.getRequestHeaders().getFirst("API-Key"))) {
+                send(exchange, 401, "{\"errors\":[{\"message\":\"Invalid API key\"}]}");
+            } else if (nextDouble() < throttleRate) {
+                throttledRequests.incrementAndGet();
+                exchange.getResponseHeaders().add("Retry-After", "0");
+                send(exchange, 429, "{\"errors\":[{\"message\":\"Too many requests\"}]}");
+            } else if (nextDouble() < errorRate) {
+                failedRequests.incrementAndGet();
+                send(exchange, 500, "{\"errors\":[{\"message\":\"Internal error\"}]}");
+            } else {
+                send(exchange, 200, createResponse(body));
+            }
+        } catch (InterruptedException e) {
+            // closing the server
+            Thread.currentThread().interrupt();
+        } finally {
+            inFlight.decrementAndGet();
+            exchange.close();
+        }
+    }
+
+    private String createResponse(String requestBody) {
+        StringBuilder json = new StringBuilder("{\"data\":{\"actor\":{");
+        Matcher aliases = ALIAS_PATTERN.matcher(requestBody);
+        boolean firstAlias = true;
+        while (aliases.find()) {
+            if (!firstAlias) {
+                json.append(',');
+            }
+            firstAlias = false;
+            json.append('"').append(aliases.group(1)).append("\":{\"results\":[");
+            for (int i = 0; i < numFacets; i++) {
+                if (i > 0) {
+                    json.append(',');
+                }
+                String name = "WebTransaction/Custom/metric-" + i;
+                json.append("{\"facet\":[\"").append(name).append("\"],\"count\":1,\"name\":\"").append(name).append("\"}");
+            }
+            json.append("]}");
+        }
+        json.append("}},\"extensions\":{\"padding\":\"");
+        for (int i = 0; i < paddingBytes; i++) {
+            json.append('x');
+        }
+        json.append("\"}}");
+        return json.toString();
+    }
+
+    private double nextDouble() {
+        synchronized (random) {
+            return random.nextDouble();
+        }
+    }
+
+    private static String readBody(InputStream bodyStream) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = bodyStream.read(buffer)) != -1) {
+            body.write(buffer, 0, read);
+        }
+        return new String(body.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static void send(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream responseBody = exchange.getResponseBody()) {
+            responseBody.write(bytes);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.disney.idea.client;
+
+import java.util.Random;
+
+/**
+ * Builds synthetic NerdGraph responses of aliased {@code FACET name} NRQL queries, shaped like the
+ * real responses, for the tests and the benchmarks of the response parsing.
+ */
+public final class NerdGraphFixtures {
+
+    private static final String METRIC_NAME_PREFIX = "WebTransaction/Custom/";
+
+    private NerdGraphFixtures() {
+    }
+
+    /**
+     * Builds a response with the results of the queries {@code d0}, {@code d1}, ... each holding
+     * the given number of facets, with names drawn at random from {@code metric-0} up to the given
+     * number of distinct names. The same seed always gives the same response.
+     * @param numAliases    the number of aliased queries in the response
+     * @param numFacets     the number of results of each query
+     * @param distinctNames the number of metric names to draw from
+     * @param seed          the seed for the names and counts
+     * @return the response body
+     */
+    public static String countsResponse(int numAliases, int numFacets, int distinctNames, long seed) {
+        StringBuilder json = new StringBuilder("{\"data\":{\"actor\":{");
+        Random random = new Random(seed);
+        for (int alias = 0; alias < numAliases; alias++) {
+            if (alias > 0) {
+                json.append(',');
+            }
+            json.append("\"d").append(alias).append("\":{\"results\":[");
+            for (int i = 0; i < numFacets; i++) {
+                if (i > 0) {
+                    json.append(',');
+                }
+                String name = METRIC_NAME_PREFIX + "metric-" + random.nextInt(distinctNames);
+                json.append("{\"facet\":[\"").append(name).append("\"],\"count\":").append(random.nextInt(100000))
+                        .append(",\"name\":\"").append(name).append("\"}");
+            }
+            json.append("],\"metadata\":{\"facets\":[\"name\"]}}");
+        }
+        json.append("}},\"extensions\":{\"nrOnly\":{}}}");
+        return json.toString();
+    }
+}
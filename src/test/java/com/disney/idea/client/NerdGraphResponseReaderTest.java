@@ -0,0 +1,59 @@
+package com.disney.idea.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class NerdGraphResponseReaderTest {
+
+    @Test
+    public void readCounts_matchesTreeReader() throws Exception {
+        String json = NerdGraphFixtures.countsResponse(5, 1000, 1500, 42);
+
+        Assert.assertEquals(readTree(json), readStreaming(json));
+    }
+
+    @Test
+    public void readCounts_matchesTreeReaderForEdgeCases() throws Exception {
+        String[] responses = {
+                "{\"data\":{\"actor\":{\"d0\":{\"results\":[{\"facet\":\"this\",\"count\":5,\"name\":\"this\"}]}}}}",
+                "{\"data\":{\"actor\":{\"d0\":{\"results\":[]},\"d1\":null}}}",
+                "{\"data\":{\"actor\":{\"d0\":{\"results\":[{\"count\":5},{\"name\":7,\"count\":2},{\"name\":\"a\",\"count\":\"3\"}]}}}}",
+                "{\"data\":null,\"errors\":[{\"message\":\"NRQL Syntax Error\"}]}",
+                "{\"data\":{\"actor\":{\"d0\":{\"results\":[{\"name\":\"a\",\"count\":{\"nested\":1}},{\"name\":\"a\",\"count\":4.0}]}}}}",
+                "{\"data\":{\"actor\":[{\"results\":[{\"name\":\"a\",\"count\":1}]}]}}",
+                "{}",
+        };
+        for (String response : responses) {
+            Assert.assertEquals(response, readTree(response), readStreaming(response));
+        }
+    }
+
+    @Test
+    public void readCounts_stripsCustomTransactionPrefixAndSums() throws Exception {
+        Map<String, Long> counts = readStreaming("{\"data\":{\"actor\":{"
+                + "\"d0\":{\"results\":[{\"name\":\"WebTransaction/Custom/this\",\"count\":5}]},"
+                + "\"d1\":{\"results\":[{\"name\":\"WebTransaction/Custom/this\",\"count\":3},{\"name\":\"that\",\"count\":1}]}}}}");
+
+        Assert.assertEquals(2, counts.size());
+        Assert.assertEquals(Long.valueOf(8), counts.get("this"));
+        Assert.assertEquals(Long.valueOf(1), counts.get("that"));
+    }
+
+    private static Map<String, Long> readStreaming(String json) throws IOException {
+        Map<String, Long> counts = new HashMap<>();
+        NerdGraphResponseReader.readCounts(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), counts);
+        return counts;
+    }
+
+    private static Map<String, Long> readTree(String json) throws IOException {
+        Map<String, Long> counts = new HashMap<>();
+        TreeResponseReader.readCounts(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), counts);
+        return counts;
+    }
+}
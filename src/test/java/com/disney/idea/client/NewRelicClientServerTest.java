@@ -0,0 +1,132 @@
+package com.disney.idea.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs queries against a {@link FakeNerdGraphServer} over real connections, covering what the
+ * mocked HTTP client of {@link NewRelicClientTest} can't: connection reuse, concurrency, timeouts
+ * and large responses.
+ */
+public class NewRelicClientServerTest {
+
+    private final String accountId = "fakeAccountId";
+    private final String apiKey = "fakeApiKey";
+    private final String appName = "fakeAppName";
+    private final String untilDate = "2020-11-03";
+
+    private FakeNerdGraphServer server;
+    private CloseableHttpClient httpClient;
+
+    @Before
+    public void setup() throws Exception {
+        server = new FakeNerdGraphServer(apiKey);
+        httpClient = NewRelicClient.createPooledHttpClient();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        httpClient.close();
+        server.close();
+    }
+
+    @Test
+    public void query_runsDaysConcurrentlyOverPooledConnections() {
+        // the first requests are only answered once four of them have arrived
+        server.setConcurrentRequests(4);
+        server.setLatencyMs(10);
+        NewRelicClient client = createClient("32");
+        client.setMaxConcurrentQueries(4);
+
+        Map<String, Long> firstCounts = client.query(null);
+        Map<String, Long> secondCounts = client.query(null);
+
+        assertAllCounted(32, firstCounts);
+        assertAllCounted(32, secondCounts);
+        assertTrue(client.isComplete());
+        assertEquals(64, server.getRequests());
+        assertEquals(4, server.getMaxInFlight());
+        // the second query reuses the kept-alive connections of the first
+        assertTrue(server.getConnections() + " connections", server.getConnections() <= 4);
+    }
+
+    @Test
+    public void query_retriesFailedAndThrottledRequests() {
+        server.setErrorRate(0.2);
+        server.setThrottleRate(0.2);
+        NewRelicClient client = createClient("30");
+        client.setRetryPolicy(new RetryPolicy(20, 0, 0));
+
+        Map<String, Long> counts = client.query(null);
+
+        assertAllCounted(30, counts);
+        assertTrue(server.getFailedRequests() > 0);
+        assertTrue(server.getThrottledRequests() > 0);
+        assertEquals(30 + server.getFailedRequests() + server.getThrottledRequests(), server.getRequests());
+    }
+
+    @Test
+    public void query_givesUpOnSlowResponses() {
+        server.setLatencyMs(10_000);
+        NewRelicClient client = createClient("1");
+        client.setTimeouts(1_000, 300);
+        client.setRetryPolicy(new RetryPolicy(2, 0, 0));
+
+        Map<String, Long> counts = client.query(null);
+
+        // both attempts were abandoned before the server could answer
+        assertTrue(counts.isEmpty());
+        assertFalse(client.isComplete());
+        assertEquals(2, server.getRequests());
+    }
+
+    @Test
+    public void query_readsLargeResponses() {
+        server.setNumFacets(900);
+        server.setPaddingBytes(4 * 1024 * 1024);
+        NewRelicClient client = createClient("7");
+
+        Map<String, Long> counts = client.query(null);
+
+        assertEquals(900, counts.size());
+        assertAllCounted(7, counts);
+        assertEquals(7, server.getRequests());
+    }
+
+    @Test
+    public void query_windowUsesOneRequestForAllDays() {
+        NewRelicClient client = createClient("30");
+        client.setQueryStrategy(NewRelicClient.QueryStrategy.WINDOW);
+
+        Map<String, Long> counts = client.query(null);
+
+        // the window query counts each name once over the whole range
+        assertAllCounted(1, counts);
+        assertEquals(1, server.getRequests());
+    }
+
+    /**
+     * Creates a client querying one day per request, over the given number of days.
+     */
+    private NewRelicClient createClient(String numDays) {
+        NewRelicClient client = new NewRelicClient(accountId, apiKey, server.getUrl(), appName, numDays, untilDate, httpClient);
+        client.setQueryStrategy(NewRelicClient.QueryStrategy.PER_DAY);
+        client.setBatchSize(1);
+        return client;
+    }
+
+    private void assertAllCounted(long expectedCount, Map<String, Long> counts) {
+        assertTrue(!counts.isEmpty());
+        for (Map.Entry<String, Long> count : counts.entrySet()) {
+            assertEquals(count.getKey(), Long.valueOf(expectedCount), count.getValue());
+        }
+    }
+}
@@ -7,6 +7,13 @@ import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.io.IOException;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.http.HttpVersion;
@@ -14,9 +21,17 @@ import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.message.BasicHeader;
 import org.apache.http.message.BasicStatusLine;
+import org.apache.http.util.EntityUtils;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentCaptor;
+import org.mockito.stubbing.Answer;
+
+import com.intellij.openapi.progress.ProgressIndicator;
 
 public class NewRelicClientTest {
 
@@ -27,6 +42,9 @@ public class NewRelicClientTest {
     private final String numDays = "1";
     private final String untilDate = "";
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     private CloseableHttpClient httpClient;
     private NewRelicClient newRelicClient;
 
@@ -34,6 +52,7 @@ public class NewRelicClientTest {
     public void setup() {
         httpClient = mock(CloseableHttpClient.class);
         newRelicClient = new NewRelicClient(accountId, apiKey, nrUrl, appName, numDays, untilDate, httpClient);
+        newRelicClient.setRetryPolicy(new RetryPolicy(2, 0, 0));
     }
 
     @Test
@@ -43,6 +62,7 @@ public class NewRelicClientTest {
         Map<String, Long> result = newRelicClient.query(null);
 
         assert result.isEmpty();
+        assert !newRelicClient.isComplete();
         verify(httpClient, times(2)).execute(any(HttpPost.class));
     }
 
@@ -54,6 +74,7 @@ public class NewRelicClientTest {
         when(response.getStatusLine()).thenReturn(new BasicStatusLine(HttpVersion.HTTP_1_1, 500, null));
 
         Map<String, Long> result = newRelicClient.query(null);
+        assert !newRelicClient.isComplete();
 
         assert result.isEmpty();
         verify(httpClient, times(2)).execute(any(HttpPost.class));
@@ -62,8 +83,8 @@ public class NewRelicClientTest {
     @Test
     public void query_noRetriesAfterSuccess() throws Exception {
         CloseableHttpResponse response = mock(CloseableHttpResponse.class);
-        // {"data":{"actor":{"nrql":{"results":[{"facet":"...","count":...,"name":"..."}, { etc... }]}}}}
-        StringEntity entity = new StringEntity("{\"data\":{\"actor\":{\"nrql\":{\"results\":[{\"facet\":\"this\",\"count\":5,\"name\":\"this\"}]}}}}");
+        // {"data":{"actor":{"d0":{"results":[{"facet":"...","count":...,"name":"..."}, { etc... }]}}}}
+        StringEntity entity = new StringEntity("{\"data\":{\"actor\":{\"d0\":{\"results\":[{\"facet\":\"this\",\"count\":5,\"name\":\"this\"}]}}}}");
 
         when(httpClient.execute(any(HttpPost.class))).thenReturn(response);
         when(response.getStatusLine()).thenReturn(new BasicStatusLine(HttpVersion.HTTP_1_1, 200, null));
@@ -72,7 +93,481 @@ public class NewRelicClientTest {
         Map<String, Long> result = newRelicClient.query(null);
 
         assert result.get("this") == 5;
+        assert newRelicClient.isComplete();
+        verify(httpClient, times(1)).execute(any(HttpPost.class));
+
+    }
+
+    @Test
+    public void query_noRetriesAfterUnauthorizedResponse() throws Exception {
+        CloseableHttpResponse response = mock(CloseableHttpResponse.class);
+
+        when(httpClient.execute(any(HttpPost.class))).thenReturn(response);
+        when(response.getStatusLine()).thenReturn(new BasicStatusLine(HttpVersion.HTTP_1_1, 401, null));
+
+        newRelicClient.setRetryPolicy(new RetryPolicy());
+        Map<String, Long> result = newRelicClient.query(null);
+        assert !newRelicClient.isComplete();
+
+        assert result.isEmpty();
         verify(httpClient, times(1)).execute(any(HttpPost.class));
+    }
+
+    @Test
+    public void query_retriesRateLimitedResponseAfterRetryAfter() throws Exception {
+        CloseableHttpResponse rateLimited = mock(CloseableHttpResponse.class);
+        when(rateLimited.getStatusLine()).thenReturn(new BasicStatusLine(HttpVersion.HTTP_1_1, 429, null));
+        when(rateLimited.getFirstHeader("Retry-After")).thenReturn(new BasicHeader("Retry-After", "0"));
+        CloseableHttpResponse response = mock(CloseableHttpResponse.class);
+        when(response.getStatusLine()).thenReturn(new BasicStatusLine(HttpVersion.HTTP_1_1, 200, null));
+        when(response.getEntity()).thenReturn(new StringEntity("{\"data\":{\"actor\":{\"d0\":{\"results\":[{\"facet\":\"this\",\"count\":5,\"name\":\"this\"}]}}}}"));
+
+        when(httpClient.execute(any(HttpPost.class))).thenReturn(rateLimited, rateLimited, response);
+
+        // without the header each retry could wait up to a minute
+        newRelicClient.setRetryPolicy(new RetryPolicy(4, 60_000, 60_000));
+        long start = System.currentTimeMillis();
+        Map<String, Long> result = newRelicClient.query(null);
+        assert newRelicClient.isComplete();
+
+        assert System.currentTimeMillis() - start < 5000;
+        assert result.get("this") == 5;
+        verify(httpClient, times(3)).execute(any(HttpPost.class));
+    }
+
+    @Test
+    public void query_dateRangeRunsOneQueryPerDayConcurrently() throws Exception {
+        CloseableHttpResponse response = mock(CloseableHttpResponse.class);
+        StringEntity entity = new StringEntity("{\"data\":{\"actor\":{\"d0\":{\"results\":[{\"facet\":\"this\",\"count\":5,\"name\":\"this\"}]}}}}");
+
+        when(httpClient.execute(any(HttpPost.class))).thenReturn(response);
+        when(response.getStatusLine()).thenReturn(new BasicStatusLine(HttpVersion.HTTP_1_1, 200, null));
+        when(response.getEntity()).thenReturn(entity);
+
+        NewRelicClient rangeClient = new NewRelicClient(accountId, apiKey, nrUrl, appName, "7", "2020-11-03", httpClient);
+        rangeClient.setQueryStrategy(NewRelicClient.QueryStrategy.PER_DAY);
+        rangeClient.setMaxConcurrentQueries(3);
+        rangeClient.setBatchSize(1);
+        Map<String, Long> result = rangeClient.query(null);
+        assert rangeClient.isComplete();
+
+        assert result.get("this") == 35;
+        verify(httpClient, times(7)).execute(any(HttpPost.class));
+    }
+
+    @Test
+    public void query_dateRangeBatchesDaysIntoAliasedRequests() throws Exception {
+        CloseableHttpResponse response = mock(CloseableHttpResponse.class);
+        StringEntity entity = new StringEntity("{\"data\":{\"actor\":{"
+                + "\"d0\":{\"results\":[{\"facet\":\"this\",\"count\":5,\"name\":\"this\"}]},"
+                + "\"d1\":{\"results\":[{\"facet\":\"this\",\"count\":2,\"name\":\"this\"},{\"facet\":\"that\",\"count\":1,\"name\":\"that\"}]}}}}");
+
+        when(httpClient.execute(any(HttpPost.class))).thenReturn(response);
+        when(response.getStatusLine()).thenReturn(new BasicStatusLine(HttpVersion.HTTP_1_1, 200, null));
+        when(response.getEntity()).thenReturn(entity);
+
+        NewRelicClient rangeClient = new NewRelicClient(accountId, apiKey, nrUrl, appName, "5", "2020-11-03", httpClient);
+        rangeClient.setQueryStrategy(NewRelicClient.QueryStrategy.PER_DAY);
+        rangeClient.setMaxConcurrentQueries(1);
+        rangeClient.setBatchSize(2);
+        Map<String, Long> result = rangeClient.query(null);
+        assert rangeClient.isComplete();
+
+        ArgumentCaptor<HttpPost> requests = ArgumentCaptor.forClass(HttpPost.class);
+        verify(httpClient, times(3)).execute(requests.capture());
+        String firstBody = EntityUtils.toString(requests.getAllValues().get(0).getEntity());
+        assert firstBody.contains("d0: nrql(");
+        assert firstBody.contains("d1: nrql(");
+        assert firstBody.contains("SINCE \\u00272020-11-02\\u0027 UNTIL \\u00272020-11-03\\u0027");
+        String lastBody = EntityUtils.toString(requests.getAllValues().get(2).getEntity());
+        assert lastBody.contains("d0: nrql(");
+        assert !lastBody.contains("d1: nrql(");
+        assert result.get("this") == 21;
+        assert result.get("that") == 3;
+    }
+
+    @Test
+    public void query_dateRangeOnlyQueriesDaysMissingFromCache() throws Exception {
+        CloseableHttpResponse response = mock(CloseableHttpResponse.class);
+        StringEntity entity = new StringEntity("{\"data\":{\"actor\":{\"d0\":{\"results\":[{\"facet\":\"this\",\"count\":5,\"name\":\"this\"}]}}}}");
+
+        when(httpClient.execute(any(HttpPost.class))).thenReturn(response);
+        when(response.getStatusLine()).thenReturn(new BasicStatusLine(HttpVersion.HTTP_1_1, 200, null));
+        when(response.getEntity()).thenReturn(entity);
+
+        DailyCountsCache cache = new DailyCountsCache(folder.getRoot().toPath());
+        NewRelicClient rangeClient = new NewRelicClient(accountId, apiKey, nrUrl, appName, "3", "2020-11-03", httpClient);
+        rangeClient.setQueryStrategy(NewRelicClient.QueryStrategy.PER_DAY);
+        rangeClient.setBatchSize(1);
+        rangeClient.setCountsCache(cache);
+        Map<String, Long> result = rangeClient.query(null);
+        assert rangeClient.isComplete();
+        assert result.get("this") == 15;
+        verify(httpClient, times(3)).execute(any(HttpPost.class));
+
+        // moving the window one day forward only queries the new day
+        NewRelicClient movedClient = new NewRelicClient(accountId, apiKey, nrUrl, appName, "3", "2020-11-04", httpClient);
+        movedClient.setQueryStrategy(NewRelicClient.QueryStrategy.PER_DAY);
+        movedClient.setBatchSize(1);
+        movedClient.setCountsCache(cache);
+        result = movedClient.query(null);
+        assert movedClient.isComplete();
+        assert result.get("this") == 15;
+        verify(httpClient, times(4)).execute(any(HttpPost.class));
+    }
+
+    @Test
+    public void query_lastDaysOnlyQueriesPartialDaysMissingFromCache() throws Exception {
+        CloseableHttpResponse response = mock(CloseableHttpResponse.class);
+        StringEntity entity = new StringEntity("{\"data\":{\"actor\":{"
+                + "\"d0\":{\"results\":[{\"facet\":\"this\",\"count\":5,\"name\":\"this\"}]},"
+                + "\"d1\":{\"results\":[{\"facet\":\"this\",\"count\":5,\"name\":\"this\"}]}}}}");
+
+        when(httpClient.execute(any(HttpPost.class))).thenReturn(response);
+        when(response.getStatusLine()).thenReturn(new BasicStatusLine(HttpVersion.HTTP_1_1, 200, null));
+        when(response.getEntity()).thenReturn(entity);
+
+        Instant now = Instant.parse("2020-11-03T12:00:00Z");
+        DailyCountsCache cache = new DailyCountsCache(folder.getRoot().toPath());
+        cache.put(accountId, appName, LocalDate.parse("2020-11-01"), Collections.singletonMap("this", 5L));
+        cache.put(accountId, appName, LocalDate.parse("2020-11-02"), Collections.singletonMap("this", 5L));
+        NewRelicClient lastDaysClient = new NewRelicClient(accountId, apiKey, nrUrl, appName, "3", "", httpClient);
+        lastDaysClient.setClock(Clock.fixed(now, ZoneOffset.UTC));
+        lastDaysClient.setCountsCache(cache);
+        Map<String, Long> result = lastDaysClient.query(null);
+
+        // the whole days come from the cache, the start of the window and today are queried together
+        assert result.get("this") == 20;
+        assert lastDaysClient.isComplete();
+        ArgumentCaptor<HttpPost> requests = ArgumentCaptor.forClass(HttpPost.class);
+        verify(httpClient, times(1)).execute(requests.capture());
+        String body = EntityUtils.toString(requests.getValue().getEntity());
+        assert body.contains("SINCE " + Instant.parse("2020-10-31T12:00:00Z").toEpochMilli() + " UNTIL " + Instant.parse("2020-11-01T00:00:00Z").toEpochMilli());
+        assert body.contains("SINCE " + Instant.parse("2020-11-03T00:00:00Z").toEpochMilli() + " UNTIL " + now.toEpochMilli());
+    }
+
+    @Test
+    public void query_cachesDaysOnlyAfterGracePeriod() throws Exception {
+        CloseableHttpResponse response = mock(CloseableHttpResponse.class);
+        when(httpClient.execute(any(HttpPost.class))).thenReturn(response);
+        when(response.getStatusLine()).thenReturn(new BasicStatusLine(HttpVersion.HTTP_1_1, 200, null));
+        when(response.getEntity()).thenAnswer(invocation -> new StringEntity(
+                "{\"data\":{\"actor\":{\"d0\":{\"results\":[{\"facet\":\"this\",\"count\":5,\"name\":\"this\"}]}}}}"));
+
+        NewRelicClient dayClient = new NewRelicClient(accountId, apiKey, nrUrl, appName, "1", "2020-11-03", httpClient);
+        dayClient.setCountsCache(new DailyCountsCache(folder.getRoot().toPath()));
+
+        // events of the day which just ended may still arrive
+        dayClient.setClock(Clock.fixed(Instant.parse("2020-11-03T01:00:00Z"), ZoneOffset.UTC));
+        dayClient.query(null);
+        dayClient.query(null);
+        verify(httpClient, times(2)).execute(any(HttpPost.class));
+
+        dayClient.setClock(Clock.fixed(Instant.parse("2020-11-03T12:00:00Z"), ZoneOffset.UTC));
+        dayClient.query(null);
+        assert dayClient.query(null).get("this") == 5;
+        verify(httpClient, times(3)).execute(any(HttpPost.class));
+    }
+
+    @Test
+    public void query_dateRangePublishesRunningTotals() throws Exception {
+        CloseableHttpResponse response = mock(CloseableHttpResponse.class);
+        StringEntity entity = new StringEntity("{\"data\":{\"actor\":{\"d0\":{\"results\":[{\"facet\":\"this\",\"count\":5,\"name\":\"this\"}]}}}}");
+
+        when(httpClient.execute(any(HttpPost.class))).thenReturn(response);
+        when(response.getStatusLine()).thenReturn(new BasicStatusLine(HttpVersion.HTTP_1_1, 200, null));
+        when(response.getEntity()).thenReturn(entity);
+
+        List<Map<String, Long>> updates = new ArrayList<>();
+        NewRelicClient rangeClient = new NewRelicClient(accountId, apiKey, nrUrl, appName, "3", "2020-11-03", httpClient);
+        rangeClient.setQueryStrategy(NewRelicClient.QueryStrategy.PER_DAY);
+        rangeClient.setBatchSize(1);
+        rangeClient.setMaxConcurrentQueries(1);
+        rangeClient.setCountsListener(updates::add);
+        Map<String, Long> result = rangeClient.query(null);
+        assert rangeClient.isComplete();
+
+        assert updates.size() == 3;
+        assert updates.get(0).get("this") == 5;
+        assert updates.get(1).get("this") == 10;
+        assert updates.get(2).get("this") == 15;
+        assert result.get("this") == 15;
+    }
+
+    @Test
+    public void query_abortsRequestWhenCanceled() throws Exception {
+        when(httpClient.execute(any(HttpPost.class))).thenAnswer(hangUntilAborted());
+        ProgressIndicator indicator = mock(ProgressIndicator.class);
+        when(indicator.isCanceled()).thenReturn(true);
+
+        Map<String, Long> result = newRelicClient.query(indicator);
+
+        assert result.isEmpty();
+        assert !newRelicClient.isComplete();
+        ArgumentCaptor<HttpPost> requests = ArgumentCaptor.forClass(HttpPost.class);
+        verify(httpClient, times(1)).execute(requests.capture());
+        assert requests.getValue().isAborted();
+    }
+
+    @Test
+    public void query_abortsRequestsAfterDeadline() throws Exception {
+        when(httpClient.execute(any(HttpPost.class))).thenAnswer(hangUntilAborted());
+
+        NewRelicClient rangeClient = new NewRelicClient(accountId, apiKey, nrUrl, appName, "3", "2020-11-03", httpClient);
+        rangeClient.setQueryStrategy(NewRelicClient.QueryStrategy.PER_DAY);
+        rangeClient.setBatchSize(1);
+        rangeClient.setMaxConcurrentQueries(3);
+        rangeClient.setQueryDeadline(300);
+        long start = System.currentTimeMillis();
+        Map<String, Long> result = rangeClient.query(null);
+
+        assert System.currentTimeMillis() - start < 5000;
+        assert result.isEmpty();
+        assert !rangeClient.isComplete();
+        ArgumentCaptor<HttpPost> requests = ArgumentCaptor.forClass(HttpPost.class);
+        verify(httpClient, times(3)).execute(requests.capture());
+        for (HttpPost request : requests.getAllValues()) {
+            assert request.isAborted();
+            assert request.getConfig().getSocketTimeout() > 0;
+        }
+    }
+
+    /**
+     * Stands in for a NerdGraph call which never answers, failing the way HttpClient does once aborted.
+     */
+    private static Answer<CloseableHttpResponse> hangUntilAborted() {
+        return invocation -> {
+            HttpPost request = invocation.getArgument(0);
+            while (!request.isAborted()) {
+                Thread.sleep(10);
+            }
+            throw new IOException("Request aborted");
+        };
+    }
+
+    @Test
+    public void query_dateRangeWindowQueriesAllDaysAtOnce() throws Exception {
+        CloseableHttpResponse response = mock(CloseableHttpResponse.class);
+        StringEntity entity = new StringEntity("{\"data\":{\"actor\":{\"d0\":{\"results\":[{\"facet\":\"this\",\"count\":35,\"name\":\"this\"}]}}}}");
+
+        when(httpClient.execute(any(HttpPost.class))).thenReturn(response);
+        when(response.getStatusLine()).thenReturn(new BasicStatusLine(HttpVersion.HTTP_1_1, 200, null));
+        when(response.getEntity()).thenReturn(entity);
+
+        NewRelicClient rangeClient = new NewRelicClient(accountId, apiKey, nrUrl, appName, "7", "2020-11-03", httpClient);
+        Map<String, Long> result = rangeClient.query(null);
+        assert rangeClient.isComplete();
+
+        ArgumentCaptor<HttpPost> requests = ArgumentCaptor.forClass(HttpPost.class);
+        verify(httpClient, times(1)).execute(requests.capture());
+        String body = EntityUtils.toString(requests.getValue().getEntity());
+        assert body.contains("SINCE \\u00272020-10-27\\u0027 UNTIL \\u00272020-11-03\\u0027");
+        assert !body.contains("TIMESERIES");
+        assert result.get("this") == 35;
+    }
+
+    @Test
+    public void query_dateRangeWindowCachesEachDay() throws Exception {
+        CloseableHttpResponse response = mock(CloseableHttpResponse.class);
+        // buckets begin at 2020-11-01 and 2020-11-02 UTC; 2020-11-03 has no transactions
+        StringEntity entity = new StringEntity("{\"data\":{\"actor\":{\"d0\":{\"results\":["
+                + "{\"beginTimeSeconds\":1604188800,\"endTimeSeconds\":1604275200,\"facet\":\"this\",\"count\":5,\"name\":\"this\"},"
+                + "{\"beginTimeSeconds\":1604275200,\"endTimeSeconds\":1604361600,\"facet\":\"this\",\"count\":2,\"name\":\"this\"}]}}}}");
+
+        when(httpClient.execute(any(HttpPost.class))).thenReturn(response);
+        when(response.getStatusLine()).thenReturn(new BasicStatusLine(HttpVersion.HTTP_1_1, 200, null));
+        when(response.getEntity()).thenReturn(entity);
+
+        DailyCountsCache cache = new DailyCountsCache(folder.getRoot().toPath());
+        NewRelicClient rangeClient = new NewRelicClient(accountId, apiKey, nrUrl, appName, "3", "2020-11-04", httpClient);
+        rangeClient.setCountsCache(cache);
+        Map<String, Long> result = rangeClient.query(null);
+        assert rangeClient.isComplete();
+
+        ArgumentCaptor<HttpPost> requests = ArgumentCaptor.forClass(HttpPost.class);
+        verify(httpClient, times(1)).execute(requests.capture());
+        assert EntityUtils.toString(requests.getValue().getEntity()).contains("TIMESERIES 1 day");
+        assert result.get("this") == 7;
+        assert cache.get(accountId, appName, LocalDate.parse("2020-11-01")).get("this") == 5;
+        assert cache.get(accountId, appName, LocalDate.parse("2020-11-02")).get("this") == 2;
+        assert cache.get(accountId, appName, LocalDate.parse("2020-11-03")).isEmpty();
+    }
+
+    @Test
+    public void query_dateRangeWindowFallsBackToDaysAtFacetLimit() throws Exception {
+        StringBuilder saturated = new StringBuilder("{\"data\":{\"actor\":{\"d0\":{\"results\":[");
+        for (int i = 0; i < 1000; i++) {
+            saturated.append(i > 0 ? "," : "").append("{\"count\":1,\"name\":\"metric-").append(i).append("\"}");
+        }
+        saturated.append("]}}}}");
+        CloseableHttpResponse windowResponse = mock(CloseableHttpResponse.class);
+        when(windowResponse.getStatusLine()).thenReturn(new BasicStatusLine(HttpVersion.HTTP_1_1, 200, null));
+        when(windowResponse.getEntity()).thenReturn(new StringEntity(saturated.toString()));
+        CloseableHttpResponse dayResponse = mock(CloseableHttpResponse.class);
+        when(dayResponse.getStatusLine()).thenReturn(new BasicStatusLine(HttpVersion.HTTP_1_1, 200, null));
+        when(dayResponse.getEntity()).thenReturn(new StringEntity("{\"data\":{\"actor\":{\"d0\":{\"results\":[{\"count\":5,\"name\":\"this\"}]}}}}"));
+
+        when(httpClient.execute(any(HttpPost.class))).thenReturn(windowResponse, dayResponse);
+
+        NewRelicClient rangeClient = new NewRelicClient(accountId, apiKey, nrUrl, appName, "3", "2020-11-03", httpClient);
+        rangeClient.setBatchSize(1);
+        Map<String, Long> result = rangeClient.query(null);
+        assert rangeClient.isComplete();
+
+        verify(httpClient, times(4)).execute(any(HttpPost.class));
+        assert result.size() == 1;
+        assert result.get("this") == 15;
+    }
+
+    @Test
+    public void query_splitsSaturatedResultByNamePrefix() throws Exception {
+        StringBuilder saturated = new StringBuilder("{\"data\":{\"actor\":{\"d0\":{\"results\":[");
+        for (int i = 0; i < 1000; i++) {
+            saturated.append(i > 0 ? "," : "").append("{\"count\":1,\"name\":\"metric-").append(i).append("\"}");
+        }
+        saturated.append("]}}}}");
+        String empty = "{\"data\":{\"actor\":{\"d0\":{\"results\":[]}}}}";
+        when(httpClient.execute(any(HttpPost.class))).thenAnswer(invocation -> {
+            String body = EntityUtils.toString(invocation.<HttpPost>getArgument(0).getEntity());
+            String json = empty;
+            if (body.contains("NOT LIKE")) {
+                json = "{\"data\":{\"actor\":{\"d0\":{\"results\":[{\"count\":1,\"name\":\"_other\"}]}}}}";
+            } else if (body.contains("Custom/a%")) {
+                json = "{\"data\":{\"actor\":{\"d0\":{\"results\":[{\"count\":2,\"name\":\"a-metric\"}]}}}}";
+            } else if (body.contains("Custom/%")) {
+                json = saturated.toString();
+            }
+            CloseableHttpResponse response = mock(CloseableHttpResponse.class);
+            when(response.getStatusLine()).thenReturn(new BasicStatusLine(HttpVersion.HTTP_1_1, 200, null));
+            when(response.getEntity()).thenReturn(new StringEntity(json));
+            return response;
+        });
+
+        NewRelicClient dayClient = new NewRelicClient(accountId, apiKey, nrUrl, appName, "1", "2020-11-03", httpClient);
+        dayClient.setBatchSize(1);
+        Map<String, Long> result = dayClient.query(null);
+
+        // the saturated day, then one query per partition character and one for the remaining names
+        verify(httpClient, times(1 + 36 + 1)).execute(any(HttpPost.class));
+        assert result.size() == 2;
+        assert result.get("a-metric") == 2;
+        assert result.get("_other") == 1;
+        assert dayClient.isComplete();
+    }
+
+    @Test
+    public void query_saturatedRemainderIsIncompleteAndNotCached() throws Exception {
+        StringBuilder saturated = new StringBuilder("{\"data\":{\"actor\":{\"d0\":{\"results\":[");
+        for (int i = 0; i < 1000; i++) {
+            saturated.append(i > 0 ? "," : "").append("{\"count\":1,\"name\":\"_metric-").append(i).append("\"}");
+        }
+        saturated.append("]}}}}");
+        String empty = "{\"data\":{\"actor\":{\"d0\":{\"results\":[]}}}}";
+        when(httpClient.execute(any(HttpPost.class))).thenAnswer(invocation -> {
+            String body = EntityUtils.toString(invocation.<HttpPost>getArgument(0).getEntity());
+            // the day and the names not starting with a partition character both reach the limit
+            String json = body.contains("NOT LIKE") || !body.contains("Custom/a%") && body.contains("Custom/%") ? saturated.toString() : empty;
+            CloseableHttpResponse response = mock(CloseableHttpResponse.class);
+            when(response.getStatusLine()).thenReturn(new BasicStatusLine(HttpVersion.HTTP_1_1, 200, null));
+            when(response.getEntity()).thenReturn(new StringEntity(json));
+            return response;
+        });
+
+        NewRelicClient dayClient = new NewRelicClient(accountId, apiKey, nrUrl, appName, "1", "2020-11-03", httpClient);
+        dayClient.setBatchSize(1);
+        dayClient.setCountsCache(new DailyCountsCache(folder.getRoot().toPath()));
+        Map<String, Long> result = dayClient.query(null);
+
+        // the remaining names cannot be split any further, so the names past the limit are missing
+        assert result.size() == 1000;
+        assert !dayClient.isComplete();
+        verify(httpClient, times(1 + 36 + 1)).execute(any(HttpPost.class));
+
+        // the day was not cached
+        dayClient.query(null);
+        verify(httpClient, times(2 * (1 + 36 + 1))).execute(any(HttpPost.class));
+    }
+
+    @Test
+    public void query_restrictsQueriesToMetricNames() throws Exception {
+        CloseableHttpResponse response = mock(CloseableHttpResponse.class);
+        StringEntity entity = new StringEntity("{\"data\":{\"actor\":{"
+                + "\"d0\":{\"results\":[{\"count\":5,\"name\":\"WebTransaction/Custom/m000\"}]},"
+                + "\"d1\":{\"results\":[]},"
+                + "\"d2\":{\"results\":[{\"count\":2,\"name\":\"WebTransaction/Custom/m119\"}]}}}}");
+
+        when(httpClient.execute(any(HttpPost.class))).thenReturn(response);
+        when(response.getStatusLine()).thenReturn(new BasicStatusLine(HttpVersion.HTTP_1_1, 200, null));
+        when(response.getEntity()).thenReturn(entity);
+
+        List<String> metricNames = new ArrayList<>();
+        for (int i = 119; i >= 0; i--) {
+            metricNames.add(String.format("m%03d", i));
+        }
+        newRelicClient.setMetricNames(metricNames);
+        Map<String, Long> result = newRelicClient.query(null);
+        assert newRelicClient.isComplete();
+
+        // 120 names are sent as three lists in one request
+        ArgumentCaptor<HttpPost> requests = ArgumentCaptor.forClass(HttpPost.class);
+        verify(httpClient, times(1)).execute(requests.capture());
+        String body = EntityUtils.toString(requests.getValue().getEntity());
+        assert body.contains("d0: nrql(query:\\\"SELECT count(*) FROM Transaction WHERE name IN (\\u0027WebTransaction/Custom/m000\\u0027, ");
+        assert body.contains("d2: nrql(");
+        assert !body.contains("d3: nrql(");
+        assert !body.contains("LIKE");
+        assert result.get("m000") == 5;
+        assert result.get("m119") == 2;
+
+        // a name which cannot be quoted safely turns the restriction off
+        metricNames.add("it's");
+        newRelicClient.setMetricNames(metricNames);
+        newRelicClient.query(null);
+        verify(httpClient, times(2)).execute(requests.capture());
+        assert EntityUtils.toString(requests.getValue().getEntity()).contains("name LIKE");
+    }
+
+    @Test
+    public void query_cachesRestrictedDaysPerMetricName() throws Exception {
+        // only the list holding m000 counts it
+        when(httpClient.execute(any(HttpPost.class))).thenAnswer(invocation -> {
+            HttpPost request = invocation.getArgument(0);
+            String results = EntityUtils.toString(request.getEntity()).contains("m000\\u0027")
+                    ? "{\"count\":5,\"name\":\"WebTransaction/Custom/m000\"}" : "";
+            CloseableHttpResponse response = mock(CloseableHttpResponse.class);
+            when(response.getStatusLine()).thenReturn(new BasicStatusLine(HttpVersion.HTTP_1_1, 200, null));
+            when(response.getEntity()).thenReturn(new StringEntity("{\"data\":{\"actor\":{\"d0\":{\"results\":[" + results + "]}}}}"));
+            return response;
+        });
+
+        DailyCountsCache cache = new DailyCountsCache(folder.getRoot().toPath());
+        List<String> metricNames = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            metricNames.add(String.format("m%03d", i));
+        }
+        NewRelicClient rangeClient = new NewRelicClient(accountId, apiKey, nrUrl, appName, "1", "2020-11-03", httpClient);
+        rangeClient.setBatchSize(1);
+        rangeClient.setCountsCache(cache);
+        rangeClient.setMetricNames(metricNames);
+        Map<String, Long> result = rangeClient.query(null);
+        assert rangeClient.isComplete();
+        assert result.get("m000") == 5;
+        verify(httpClient, times(2)).execute(any(HttpPost.class));
+
+        // a new name shifts every list of names by one, but only the list holding it is queried
+        metricNames.add("a-new");
+        rangeClient.setMetricNames(metricNames);
+        result = rangeClient.query(null);
+        assert rangeClient.isComplete();
+        assert result.get("m000") == 5;
+        assert result.size() == 1;
+        ArgumentCaptor<HttpPost> requests = ArgumentCaptor.forClass(HttpPost.class);
+        verify(httpClient, times(3)).execute(requests.capture());
+        assert EntityUtils.toString(requests.getValue().getEntity()).contains("a-new");
 
+        // a subset of the cached names is served from the cache
+        rangeClient.setMetricNames(metricNames.subList(10, 20));
+        assert rangeClient.query(null).isEmpty();
+        verify(httpClient, times(3)).execute(any(HttpPost.class));
     }
 }
@@ -0,0 +1,154 @@
+package com.disney.idea.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+import org.mockito.stubbing.Answer;
+
+import com.intellij.openapi.progress.ProgressIndicator;
+
+public class QueryCoalescerTest {
+
+    private final QueryCoalescer coalescer = new QueryCoalescer();
+
+    @Test
+    public void query_sharesRunningQueryWithSameKey() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        NewRelicClient first = blockingClient("key", Collections.singletonMap("name", 5L), started, release);
+        NewRelicClient second = mockClient("key");
+
+        CountDownLatch waiting = new CountDownLatch(1);
+        ProgressIndicator waiter = waitingIndicator(waiting);
+
+        CompletableFuture<Map<String, Long>> firstResult = CompletableFuture.supplyAsync(() -> coalescer.query(first, null));
+        started.await(5, TimeUnit.SECONDS);
+        CompletableFuture<Map<String, Long>> secondResult = CompletableFuture.supplyAsync(() -> coalescer.query(second, waiter));
+        assertTrue(waiting.await(5, TimeUnit.SECONDS));
+        release.countDown();
+
+        assertEquals(Collections.singletonMap("name", 5L), firstResult.get(5, TimeUnit.SECONDS));
+        assertEquals(Collections.singletonMap("name", 5L), secondResult.get(5, TimeUnit.SECONDS));
+        verify(second, never()).query(any());
+    }
+
+    @Test
+    public void query_runsQueriesWithDifferentKeys() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        NewRelicClient first = blockingClient("key", Collections.singletonMap("name", 5L), started, release);
+        NewRelicClient second = mockClient("other key");
+        when(second.query(any())).thenReturn(Collections.singletonMap("name", 7L));
+
+        CompletableFuture<Map<String, Long>> firstResult = CompletableFuture.supplyAsync(() -> coalescer.query(first, null));
+        started.await(5, TimeUnit.SECONDS);
+
+        assertEquals(Collections.singletonMap("name", 7L), coalescer.query(second, null));
+        release.countDown();
+        assertEquals(Collections.singletonMap("name", 5L), firstResult.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void query_runsAgainAfterSharedQueryCompletes() {
+        NewRelicClient client = mockClient("key");
+        when(client.query(any())).thenReturn(Collections.singletonMap("name", 5L));
+
+        coalescer.query(client, null);
+        coalescer.query(client, null);
+
+        verify(client, times(2)).query(any());
+    }
+
+    @Test
+    public void query_runsOwnQueryWhenSharedQueryIsIncomplete() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        NewRelicClient first = blockingClient("key", Collections.singletonMap("name", 1L), started, release);
+        // canceled, out of time or with failed requests
+        when(first.isComplete()).thenReturn(false);
+        NewRelicClient second = mockClient("key");
+        when(second.query(any())).thenReturn(Collections.singletonMap("name", 5L));
+        CountDownLatch waiting = new CountDownLatch(1);
+        ProgressIndicator waiter = waitingIndicator(waiting);
+
+        CompletableFuture<Map<String, Long>> firstResult = CompletableFuture.supplyAsync(() -> coalescer.query(first, null));
+        started.await(5, TimeUnit.SECONDS);
+        CompletableFuture<Map<String, Long>> secondResult = CompletableFuture.supplyAsync(() -> coalescer.query(second, waiter));
+        assertTrue(waiting.await(5, TimeUnit.SECONDS));
+        release.countDown();
+
+        assertEquals(Collections.singletonMap("name", 1L), firstResult.get(5, TimeUnit.SECONDS));
+        assertEquals(Collections.singletonMap("name", 5L), secondResult.get(5, TimeUnit.SECONDS));
+        verify(second).query(any());
+    }
+
+    @Test
+    public void query_returnsNullWhenCanceledWhileWaiting() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        NewRelicClient first = blockingClient("key", Collections.singletonMap("name", 5L), started, release);
+        NewRelicClient second = mockClient("key");
+        CountDownLatch waiting = new CountDownLatch(1);
+        ProgressIndicator waiter = waitingIndicator(waiting);
+        // the waiter polls its indicator, so it is not stubbed again while waiting
+        AtomicBoolean canceled = new AtomicBoolean();
+        when(waiter.isCanceled()).thenAnswer(invocation -> canceled.get());
+
+        CompletableFuture<Map<String, Long>> firstResult = CompletableFuture.supplyAsync(() -> coalescer.query(first, null));
+        started.await(5, TimeUnit.SECONDS);
+        CompletableFuture<Map<String, Long>> secondResult = CompletableFuture.supplyAsync(() -> coalescer.query(second, waiter));
+        assertTrue(waiting.await(5, TimeUnit.SECONDS));
+        canceled.set(true);
+
+        assertNull(secondResult.get(5, TimeUnit.SECONDS));
+        release.countDown();
+        assertEquals(Collections.singletonMap("name", 5L), firstResult.get(5, TimeUnit.SECONDS));
+        verify(second, never()).query(any());
+    }
+
+    /**
+     * @return an indicator which counts down the latch once its query waits for the running one
+     */
+    private static ProgressIndicator waitingIndicator(CountDownLatch waiting) {
+        ProgressIndicator indicator = mock(ProgressIndicator.class);
+        doAnswer(invocation -> {
+            waiting.countDown();
+            return null;
+        }).when(indicator).setText2(anyString());
+        return indicator;
+    }
+
+    private static NewRelicClient mockClient(String key) {
+        NewRelicClient client = mock(NewRelicClient.class);
+        when(client.getQueryKey()).thenReturn(key);
+        when(client.isComplete()).thenReturn(true);
+        return client;
+    }
+
+    private static NewRelicClient blockingClient(String key, Map<String, Long> counts, CountDownLatch started, CountDownLatch release) {
+        NewRelicClient client = mockClient(key);
+        when(client.query(any())).thenAnswer((Answer<Map<String, Long>>) invocation -> {
+            started.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return counts;
+        });
+        return client;
+    }
+}
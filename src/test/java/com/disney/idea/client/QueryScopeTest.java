@@ -0,0 +1,50 @@
+package com.disney.idea.client;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class QueryScopeTest {
+
+    @Test
+    public void split_halvesTimeWindowFirst() {
+        List<QueryScope> halves = QueryScope.ofDays(LocalDate.parse("2020-11-01"), LocalDate.parse("2020-11-04")).split();
+
+        Assert.assertEquals(2, halves.size());
+        Assert.assertEquals("SINCE '2020-11-01' UNTIL '2020-11-02'", halves.get(0).getTimeClause());
+        Assert.assertEquals("SINCE '2020-11-02' UNTIL '2020-11-04'", halves.get(1).getTimeClause());
+
+    }
+
+    @Test
+    public void split_halvesWindowAtFixedInstant() {
+        Instant now = Instant.parse("2020-11-04T10:30:00Z");
+        List<QueryScope> halves = QueryScope.ofWindow(now.minus(Duration.ofDays(7)), now).split();
+
+        Assert.assertEquals(2, halves.size());
+        long middle = Instant.parse("2020-10-31T22:30:00Z").toEpochMilli();
+        Assert.assertEquals("SINCE " + Instant.parse("2020-10-28T10:30:00Z").toEpochMilli() + " UNTIL " + middle,
+                halves.get(0).getTimeClause());
+        Assert.assertEquals("SINCE " + middle + " UNTIL " + now.toEpochMilli(), halves.get(1).getTimeClause());
+    }
+
+    @Test
+    public void split_partitionsNamesOfSingleDay() {
+        List<QueryScope> partitions = QueryScope.ofDays(LocalDate.parse("2020-11-01"), LocalDate.parse("2020-11-02")).split();
+
+        Assert.assertEquals(37, partitions.size());
+        Assert.assertEquals("name LIKE 'WebTransaction/Custom/a%'", partitions.get(0).getNameCondition());
+        Assert.assertEquals("SINCE '2020-11-01' UNTIL '2020-11-02'", partitions.get(0).getTimeClause());
+        String remaining = partitions.get(36).getNameCondition();
+        Assert.assertTrue(remaining.startsWith("name LIKE 'WebTransaction/Custom/%' AND name NOT LIKE 'WebTransaction/Custom/a%'"));
+        Assert.assertTrue(remaining.endsWith("AND name NOT LIKE 'WebTransaction/Custom/9%'"));
+
+        // the remaining names cannot be partitioned any further
+        Assert.assertTrue(partitions.get(36).split().isEmpty());
+        Assert.assertEquals("name LIKE 'WebTransaction/Custom/ab%'", partitions.get(0).split().get(1).getNameCondition());
+    }
+}
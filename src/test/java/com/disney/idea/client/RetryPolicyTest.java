@@ -0,0 +1,42 @@
+package com.disney.idea.client;
+
+import java.util.Date;
+
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.message.BasicHeader;
+import org.junit.Test;
+
+public class RetryPolicyTest {
+
+    private final RetryPolicy retryPolicy = new RetryPolicy(4, 100, 1000);
+
+    @Test
+    public void isRetryable_onlyTransientFailures() {
+        assert retryPolicy.isRetryable(429);
+        assert retryPolicy.isRetryable(408);
+        assert retryPolicy.isRetryable(500);
+        assert retryPolicy.isRetryable(503);
+        assert !retryPolicy.isRetryable(400);
+        assert !retryPolicy.isRetryable(401);
+        assert !retryPolicy.isRetryable(403);
+    }
+
+    @Test
+    public void getDelayMs_backoffGrowsWithinBounds() {
+        for (int i = 0; i < 100; i++) {
+            assert retryPolicy.getDelayMs(1, null) <= 100;
+            assert retryPolicy.getDelayMs(3, null) <= 400;
+            assert retryPolicy.getDelayMs(10, null) <= 1000;
+            assert retryPolicy.getDelayMs(100, null) >= 0;
+        }
+    }
+
+    @Test
+    public void getDelayMs_honorsRetryAfter() {
+        assert retryPolicy.getDelayMs(1, new BasicHeader("Retry-After", "0")) == 0;
+        assert retryPolicy.getDelayMs(1, new BasicHeader("Retry-After", "30")) == 1000;
+        String inHalfASecond = DateUtils.formatDate(new Date(System.currentTimeMillis() + 500));
+        assert retryPolicy.getDelayMs(1, new BasicHeader("Retry-After", inHalfASecond)) <= 1000;
+        assert retryPolicy.getDelayMs(1, new BasicHeader("Retry-After", "soon")) <= 100;
+    }
+}
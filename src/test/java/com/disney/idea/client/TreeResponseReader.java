@@ -0,0 +1,48 @@
+package com.disney.idea.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Reads the whole NerdGraph response into a JSON tree and then merges the counts from it.
+ * Produces the same result as {@link NerdGraphResponseReader#readCounts(InputStream, Map)}, at the
+ * cost of materializing the full response; kept as the reference implementation for the tests and
+ * the parsing benchmark.
+ */
+public final class TreeResponseReader {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final String METRIC_NAME_PREFIX = "WebTransaction/Custom/";
+
+    private TreeResponseReader() {
+    }
+
+    public static void readCounts(InputStream bodyStream, Map<String, Long> countsByName) throws IOException {
+        JsonNode json = MAPPER.readTree(bodyStream);
+        if (json == null) {
+            return;
+        }
+        JsonNode actorNode = json.path("data").path("actor");
+        if (!actorNode.isObject()) {
+            return;
+        }
+        Iterator<Map.Entry<String, JsonNode>> nrqlNodes = actorNode.fields();
+        while (nrqlNodes.hasNext()) {
+            JsonNode resultsNode = nrqlNodes.next().getValue().get("results");
+            if (resultsNode != null && resultsNode.isArray()) {
+                for (JsonNode element : resultsNode) {
+                    JsonNode nameNode = element.get("name");
+                    if (nameNode != null && nameNode.isTextual()) {
+                        String metricName = nameNode.asText().replace(METRIC_NAME_PREFIX, "");
+                        countsByName.merge(metricName, element.path("count").asLong(), Long::sum);
+                    }
+                }
+            }
+        }
+    }
+}
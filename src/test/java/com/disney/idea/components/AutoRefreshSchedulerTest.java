@@ -0,0 +1,136 @@
+package com.disney.idea.components;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Disposer;
+import com.intellij.testFramework.fixtures.LightPlatformCodeInsightFixtureTestCase;
+
+public class AutoRefreshSchedulerTest extends LightPlatformCodeInsightFixtureTestCase {
+
+    private final FakeActivitySource activitySource = new FakeActivitySource();
+    private final AtomicInteger refreshes = new AtomicInteger();
+
+    @Override
+    protected void tearDown() throws Exception {
+        try {
+            ProjectPreferencesState preferences = ProjectPreferencesState.getInstance(myFixture.getProject());
+            preferences.setAutoRefreshMinutes("0");
+            preferences.setNumDaysToQuery("1");
+            preferences.setUntilDateToQuery("");
+        } finally {
+            super.tearDown();
+        }
+    }
+
+    public void testGetBackoffDelay() {
+        Assert.assertEquals(10, AutoRefreshScheduler.getBackoffDelay(5, 5));
+        Assert.assertEquals(20, AutoRefreshScheduler.getBackoffDelay(10, 5));
+        Assert.assertEquals(40, AutoRefreshScheduler.getBackoffDelay(20, 5));
+        Assert.assertEquals(5 * AutoRefreshScheduler.MAX_BACKOFF_FACTOR, AutoRefreshScheduler.getBackoffDelay(40, 5));
+    }
+
+    public void testTick_refreshesWhileInUse() {
+        AutoRefreshScheduler scheduler = createScheduler("");
+        try {
+            scheduler.tick();
+            Assert.assertEquals(1, refreshes.get());
+            Assert.assertEquals(5, scheduler.getDelayMinutes());
+        } finally {
+            Disposer.dispose(scheduler);
+        }
+    }
+
+    public void testTick_skipsAndBacksOffWhileIdle() {
+        AutoRefreshScheduler scheduler = createScheduler("");
+        try {
+            activitySource.idleMillis = 6 * 60 * 1000;
+            scheduler.tick();
+            scheduler.tick();
+            Assert.assertEquals(0, refreshes.get());
+            Assert.assertEquals(20, scheduler.getDelayMinutes());
+
+            activitySource.idleMillis = 0;
+            activitySource.ideActive = false;
+            scheduler.tick();
+            Assert.assertEquals(0, refreshes.get());
+
+            // the interval drops back once the user returns
+            activitySource.ideActive = true;
+            scheduler.tick();
+            Assert.assertEquals(1, refreshes.get());
+            Assert.assertEquals(5, scheduler.getDelayMinutes());
+        } finally {
+            Disposer.dispose(scheduler);
+        }
+    }
+
+    public void testTick_skipsWhileToolWindowHidden() {
+        AutoRefreshScheduler scheduler = createScheduler("");
+        try {
+            activitySource.toolWindowVisible = false;
+            scheduler.tick();
+            Assert.assertEquals(0, refreshes.get());
+            Assert.assertEquals(10, scheduler.getDelayMinutes());
+        } finally {
+            Disposer.dispose(scheduler);
+        }
+    }
+
+    public void testTick_skipsWhileAnotherRefreshIsRunning() {
+        AutoRefreshScheduler scheduler = createScheduler("");
+        try {
+            scheduler.refreshStarted();
+            scheduler.tick();
+            Assert.assertEquals(0, refreshes.get());
+
+            scheduler.refreshFinished();
+            scheduler.tick();
+            Assert.assertEquals(1, refreshes.get());
+        } finally {
+            Disposer.dispose(scheduler);
+        }
+    }
+
+    public void testTick_skipsRangesUntilSetDate() {
+        AutoRefreshScheduler scheduler = createScheduler("2020-11-03");
+        try {
+            scheduler.tick();
+            Assert.assertEquals(0, refreshes.get());
+        } finally {
+            Disposer.dispose(scheduler);
+        }
+    }
+
+    private AutoRefreshScheduler createScheduler(String untilDate) {
+        Project project = myFixture.getProject();
+        ProjectPreferencesState preferences = ProjectPreferencesState.getInstance(project);
+        preferences.setAutoRefreshMinutes("5");
+        preferences.setNumDaysToQuery("3");
+        preferences.setUntilDateToQuery(untilDate);
+        return new AutoRefreshScheduler(project, activitySource, refreshes::incrementAndGet);
+    }
+
+    private static class FakeActivitySource implements AutoRefreshScheduler.ActivitySource {
+        private boolean ideActive = true;
+        private long idleMillis;
+        private boolean toolWindowVisible = true;
+
+        @Override
+        public boolean isIdeActive() {
+            return ideActive;
+        }
+
+        @Override
+        public long getIdleMillis() {
+            return idleMillis;
+        }
+
+        @Override
+        public boolean isToolWindowVisible(Project project) {
+            return toolWindowVisible;
+        }
+    }
+}
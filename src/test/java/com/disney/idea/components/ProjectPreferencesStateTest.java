@@ -13,12 +13,14 @@ import com.intellij.testFramework.fixtures.LightPlatformCodeInsightFixtureTestCa
 public class ProjectPreferencesStateTest extends LightPlatformCodeInsightFixtureTestCase {
 
     private static final String DEFAULT_NUM_DAYS_TO_QUERY = "1";
+    private static final String DEFAULT_AUTO_REFRESH_MINUTES = "0";
 
     @After
     public void testResetToDefaults() {
         Project project = myFixture.getProject();
         ProjectPreferencesState projectPreferencesState = ProjectPreferencesState.getInstance(project);
         projectPreferencesState.setNumDaysToQuery(DEFAULT_NUM_DAYS_TO_QUERY);
+        projectPreferencesState.setAutoRefreshMinutes(DEFAULT_AUTO_REFRESH_MINUTES);
     }
 
     public void testProjectPreferencesState_setAndGetNumDaysToQuery() {
@@ -72,4 +74,27 @@ public class ProjectPreferencesStateTest extends LightPlatformCodeInsightFixture
         Assert.assertEquals("", projectPreferencesState.getUntilDateToQuery());
     }
 
-}
\ No newline at end of file
+    public void testProjectPreferencesState_setAndGetAutoRefreshMinutes() {
+        //setup
+        Project project = myFixture.getProject();
+        ProjectPreferencesState projectPreferencesState = ProjectPreferencesState.getInstance(project);
+
+        //verify default value is off
+        Assert.assertEquals(DEFAULT_AUTO_REFRESH_MINUTES, projectPreferencesState.getAutoRefreshMinutes());
+
+        //update value and verify
+        projectPreferencesState.setAutoRefreshMinutes("15");
+        Assert.assertEquals("15", projectPreferencesState.getAutoRefreshMinutes());
+
+        //attempt update to invalid values and verify
+        projectPreferencesState.setAutoRefreshMinutes("-5");
+        Assert.assertEquals("15", projectPreferencesState.getAutoRefreshMinutes());
+        projectPreferencesState.setAutoRefreshMinutes("not a number");
+        Assert.assertEquals("15", projectPreferencesState.getAutoRefreshMinutes());
+
+        //update to 0 and verify
+        projectPreferencesState.setAutoRefreshMinutes("0");
+        Assert.assertEquals("0", projectPreferencesState.getAutoRefreshMinutes());
+    }
+
+}
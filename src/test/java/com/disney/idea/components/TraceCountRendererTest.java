@@ -0,0 +1,16 @@
+package com.disney.idea.components;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TraceCountRendererTest {
+
+    @Test
+    public void testFormat() {
+        TraceCountRenderer renderer = new TraceCountRenderer();
+        Assert.assertEquals("--", renderer.format(TraceTableModel.NO_COUNT));
+        Assert.assertEquals("--", renderer.format(null));
+        Assert.assertEquals("0", renderer.format(0L));
+        Assert.assertEquals("1,234,567", renderer.format(1234567L));
+    }
+}
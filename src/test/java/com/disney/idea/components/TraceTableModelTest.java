@@ -0,0 +1,86 @@
+package com.disney.idea.components;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+
+import com.disney.idea.utils.Trace;
+import com.disney.idea.utils.TraceLoader;
+import com.intellij.openapi.command.WriteCommandAction;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiDocumentManager;
+import com.intellij.psi.PsiFile;
+import com.intellij.testFramework.fixtures.LightJavaCodeInsightFixtureTestCase;
+
+public class TraceTableModelTest extends LightJavaCodeInsightFixtureTestCase {
+
+    private static final String TRACE_ANNOTATION = "package com.newrelic.api.agent;\n"
+            + "public @interface Trace { String metricName() default \"\"; }";
+
+    public void testUpdateTraces() {
+        myFixture.addClass(TRACE_ANNOTATION);
+        PsiFile first = myFixture.addFileToProject("First.java", "import com.newrelic.api.agent.Trace;\n"
+                + "class First {\n"
+                + "    @Trace(metricName = \"first\")\n"
+                + "    void first() {}\n"
+                + "}\n");
+        PsiFile second = myFixture.addFileToProject("Second.java", "import com.newrelic.api.agent.Trace;\n"
+                + "class Second {\n"
+                + "    @Trace(metricName = \"second\")\n"
+                + "    void second() {}\n"
+                + "    @Trace(metricName = \"third\")\n"
+                + "    void third() {}\n"
+                + "}\n");
+
+        TraceLoader traceLoader = new TraceLoader(getProject());
+        List<Trace> traces = new ArrayList<>(traceLoader.loadFile(first.getVirtualFile()));
+        traces.addAll(traceLoader.loadFile(second.getVirtualFile()));
+        TraceTableModel model = new TraceTableModel(traces);
+        Assert.assertEquals(TraceTableModel.NO_COUNT, model.getValueAt(0, 2));
+        Assert.assertEquals(Long.class, model.getColumnClass(2));
+        Map<String, Long> traceCounts = new HashMap<>();
+        traceCounts.put("first", 1234L);
+        traceCounts.put("renamed", 5L);
+        AtomicInteger events = new AtomicInteger();
+        model.addTableModelListener(e -> events.incrementAndGet());
+        model.addTraceCounts(traceCounts);
+        Assert.assertEquals(3, model.getRowCount());
+        Assert.assertEquals(1, events.get());
+        // the sorter compares the counts of the query result, not a new box per lookup
+        Assert.assertSame(traceCounts.get("first"), model.getValueAt(0, 2));
+
+        // drop one trace and rename the other
+        WriteCommandAction.runWriteCommandAction(getProject(), () -> {
+            Document document = PsiDocumentManager.getInstance(getProject()).getDocument(second);
+            document.setText("import com.newrelic.api.agent.Trace;\n"
+                    + "class Second {\n"
+                    + "    @Trace(metricName = \"renamed\")\n"
+                    + "    void second() {}\n"
+                    + "}\n");
+            PsiDocumentManager.getInstance(getProject()).commitDocument(document);
+        });
+        TraceTableModel.CountsSnapshot staleSnapshot = TraceTableModel.joinCounts(model.getTraces(), traceCounts);
+        Map<VirtualFile, List<Trace>> tracesByFile = new HashMap<>();
+        tracesByFile.put(second.getVirtualFile(), traceLoader.loadFile(second.getVirtualFile()));
+        model.updateTraces(tracesByFile);
+        Assert.assertEquals(2, events.get());
+
+        Assert.assertEquals(2, model.getRowCount());
+        Assert.assertEquals("first", model.getValueAt(0, 1));
+        Assert.assertEquals(1234L, model.getValueAt(0, 2));
+        Assert.assertEquals("renamed", model.getValueAt(1, 1));
+        Assert.assertEquals(5L, model.getValueAt(1, 2));
+        Assert.assertEquals("renamed", model.getTrace(1).getMetricName());
+
+        // counts joined before the rows changed are joined again with the current rows
+        model.applyCounts(staleSnapshot);
+        Assert.assertEquals(3, events.get());
+        Assert.assertEquals(1234L, model.getValueAt(0, 2));
+        Assert.assertEquals(5L, model.getValueAt(1, 2));
+    }
+}
@@ -0,0 +1,93 @@
+package com.disney.idea.utils;
+
+import java.util.Random;
+
+import com.intellij.testFramework.fixtures.CodeInsightTestFixture;
+
+/**
+ * Generates the sources of a synthetic project into a test fixture, for measuring how
+ * {@link TraceLoader} scales with the number of files and the density of trace annotations.
+ * Each file is a class of the given number of methods, a random share of which carry a named
+ * {@code @Trace}; a few others carry an unnamed one, which is not loaded. The same seed always
+ * generates the same project.
+ */
+public class SyntheticTraceProject {
+
+    static final String TRACE_ANNOTATION = "package com.newrelic.api.agent;\n"
+            + "public @interface Trace { String metricName() default \"\"; boolean dispatcher() default false; }";
+    private static final int FILES_PER_PACKAGE = 100;
+    private static final double UNNAMED_TRACE_DENSITY = 0.02;
+
+    private int numFiles = 1000;
+    private int methodsPerFile = 10;
+    private double namedTraceDensity = 0.1;
+    private boolean withAgentApi;
+    private long seed = 42;
+
+    public SyntheticTraceProject setNumFiles(int numFiles) {
+        this.numFiles = numFiles;
+        return this;
+    }
+
+    public SyntheticTraceProject setMethodsPerFile(int methodsPerFile) {
+        this.methodsPerFile = methodsPerFile;
+        return this;
+    }
+
+    /**
+     * @param namedTraceDensity the share of methods, from 0 to 1, annotated with a named trace
+     */
+    public SyntheticTraceProject setNamedTraceDensity(double namedTraceDensity) {
+        this.namedTraceDensity = namedTraceDensity;
+        return this;
+    }
+
+    /**
+     * @param withAgentApi whether the project also holds the New Relic {@code Trace} annotation class,
+     *                     which makes the loader search the index instead of scanning every file
+     */
+    public SyntheticTraceProject setWithAgentApi(boolean withAgentApi) {
+        this.withAgentApi = withAgentApi;
+        return this;
+    }
+
+    public SyntheticTraceProject setSeed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    /**
+     * Writes the sources into the fixture's project.
+     * @param fixture the fixture to write into
+     * @return the number of named traces generated
+     */
+    public int generate(CodeInsightTestFixture fixture) {
+        if (withAgentApi) {
+            fixture.addClass(TRACE_ANNOTATION);
+        }
+        Random random = new Random(seed);
+        int namedTraces = 0;
+        for (int fileIndex = 0; fileIndex < numFiles; fileIndex++) {
+            String packageName = "gen.p" + fileIndex / FILES_PER_PACKAGE;
+            String className = "Gen" + fileIndex;
+            StringBuilder source = new StringBuilder("package ").append(packageName).append(";\n\n")
+                    .append("public class ").append(className).append(" {\n");
+            for (int method = 0; method < methodsPerFile; method++) {
+                double draw = random.nextDouble();
+                if (draw < namedTraceDensity) {
+                    source.append("\n    @com.newrelic.api.agent.Trace(metricName = \"gen-")
+                            .append(fileIndex).append('-').append(method).append("\")");
+                    namedTraces++;
+                } else if (draw < namedTraceDensity + UNNAMED_TRACE_DENSITY) {
+                    source.append("\n    @com.newrelic.api.agent.Trace(dispatcher = true)");
+                }
+                source.append("\n    public int method").append(method).append("(int value) {\n")
+                        .append("        return value * ").append(method + 1).append(";\n")
+                        .append("    }\n");
+            }
+            source.append("}\n");
+            fixture.getTempDirFixture().createFile(packageName.replace('.', '/') + "/" + className + ".java", source.toString());
+        }
+        return namedTraces;
+    }
+}
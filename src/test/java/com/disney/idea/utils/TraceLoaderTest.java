@@ -0,0 +1,90 @@
+package com.disney.idea.utils;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.testFramework.fixtures.LightJavaCodeInsightFixtureTestCase;
+
+/**
+ * Checks that {@link TraceLoader} finds the named traces of generated projects, including a large one.
+ * When measuring a scanning optimization, the time and heap taken on the large project can also be
+ * checked by setting the {@code traceLoader.maxMillis} and {@code traceLoader.maxHeapMb} system
+ * properties; they are not checked by default, as both depend on the machine running the tests.
+ */
+public class TraceLoaderTest extends LightJavaCodeInsightFixtureTestCase {
+
+    // null unless set, in which case the large project is checked against them
+    private static final Long MAX_MILLIS = Long.getLong("traceLoader.maxMillis");
+    private static final Long MAX_HEAP_MB = Long.getLong("traceLoader.maxHeapMb");
+    private static final long LOAD_TIMEOUT_MINUTES = 10;
+
+    public void testLoad_scansFilesWithoutAgentApi() throws Exception {
+        int namedTraces = new SyntheticTraceProject().setNumFiles(50).setNamedTraceDensity(0.3).generate(myFixture);
+
+        List<Trace> traces = load();
+
+        Assert.assertEquals(namedTraces, traces.size());
+        assertUniqueGeneratedNames(traces);
+    }
+
+    public void testLoad_searchesIndexWithAgentApi() throws Exception {
+        int namedTraces = new SyntheticTraceProject().setNumFiles(50).setNamedTraceDensity(0.3).setWithAgentApi(true)
+                .generate(myFixture);
+
+        List<Trace> traces = load();
+
+        Assert.assertEquals(namedTraces, traces.size());
+        assertUniqueGeneratedNames(traces);
+    }
+
+    public void testLoad_largeProject() throws Exception {
+        int namedTraces = new SyntheticTraceProject().setNumFiles(3000).setMethodsPerFile(20).setNamedTraceDensity(0.05)
+                .generate(myFixture);
+        long heapBefore = MAX_HEAP_MB != null ? getUsedHeapAfterGc() : 0;
+
+        long start = System.nanoTime();
+        List<Trace> traces = load();
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        Assert.assertEquals(namedTraces, traces.size());
+        assertUniqueGeneratedNames(traces);
+        if (MAX_MILLIS != null) {
+            Assert.assertTrue("load took " + elapsedMillis + " ms", elapsedMillis < MAX_MILLIS);
+        }
+        if (MAX_HEAP_MB != null) {
+            // the traces must not pin the PSI of the scanned files
+            long heapMb = (getUsedHeapAfterGc() - heapBefore) / (1024 * 1024);
+            Assert.assertTrue("load retained " + heapMb + " MB", heapMb < MAX_HEAP_MB);
+        }
+    }
+
+    /**
+     * Loads the traces on a pooled thread, as the plugin does.
+     */
+    private List<Trace> load() throws Exception {
+        TraceLoader traceLoader = new TraceLoader(getProject());
+        return ApplicationManager.getApplication().executeOnPooledThread(() -> traceLoader.load(null))
+                .get(LOAD_TIMEOUT_MINUTES, TimeUnit.MINUTES);
+    }
+
+    private static void assertUniqueGeneratedNames(List<Trace> traces) {
+        Set<String> metricNames = new HashSet<>();
+        for (Trace trace : traces) {
+            Assert.assertTrue(trace.getMetricName(), trace.getMetricName().startsWith("gen-"));
+            Assert.assertTrue(trace.getMetricName(), metricNames.add(trace.getMetricName()));
+        }
+    }
+
+    private static long getUsedHeapAfterGc() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}